@@ -0,0 +1,267 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark results saved as JSON, so a later run can be compared against
+ * them. Every iteration's time is kept, not just the mean, since telling a
+ * real slowdown from noise needs the spread of both runs.
+ */
+class Baseline {
+    private static final int FORMAT_VERSION = 1;
+
+    // How sure we must be that a difference isn't noise before calling it a change
+    static final double SIGNIFICANCE = 0.01;
+
+    static void save(Path path, List<Harness.Result> results) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"format\": ").append(FORMAT_VERSION).append(",\n");
+        json.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+        json.append("  \"benchmarks\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Harness.Result result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\n");
+            json.append("      \"name\": ").append(quote(result.name)).append(",\n");
+            json.append("      \"unit\": \"ns/op\",\n");
+            json.append("      \"mean\": ").append(result.mean()).append(",\n");
+            json.append("      \"error\": ").append(number(result.error())).append(",\n");
+            json.append("      \"bytesPerOp\": ").append(result.bytesPerOp()).append(",\n");
+            // Bytes per second, like JMH's gc.alloc.rate
+            json.append("      \"allocationRate\": ").append(result.bytesPerOp() / result.mean() * 1e9).append(",\n");
+            json.append("      \"samples\": ").append(array(result.nanosPerOp)).append(",\n");
+            json.append("      \"bytesSamples\": ").append(array(result.bytesPerOp)).append("\n");
+            json.append("    }");
+        }
+        json.append("\n  ]\n}\n");
+        Files.write(path, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static List<Harness.Result> load(Path path) throws IOException {
+        Object json = new JsonReader(new String(Files.readAllBytes(path), StandardCharsets.UTF_8)).read();
+        if (!(json instanceof Map) || !Double.valueOf(FORMAT_VERSION).equals(((Map<?, ?>) json).get("format")))
+            throw new IOException("'" + path + "' isn't a benchmark baseline.");
+
+        List<Harness.Result> results = new ArrayList<>();
+        for (Object entry : (List<?>) ((Map<?, ?>) json).get("benchmarks")) {
+            Map<?, ?> benchmark = (Map<?, ?>) entry;
+            results.add(new Harness.Result((String) benchmark.get("name"), doubles(benchmark.get("samples")),
+                    doubles(benchmark.get("bytesSamples"))));
+        }
+        return results;
+    }
+
+    /*
+     * Print how each benchmark changed since the baseline. Returns whether any
+     * got slower by more than the threshold (a fraction, like 0.05) in a way
+     * that's statistically significant.
+     */
+    static boolean compare(List<Harness.Result> baseline, List<Harness.Result> current, double threshold) {
+        Map<String, Harness.Result> before = new LinkedHashMap<>();
+        for (Harness.Result result : baseline) {
+            before.put(result.name, result);
+        }
+
+        boolean regressed = false;
+        System.out.println(String.format("%-32s %12s %12s %9s %9s %9s  %s", "Benchmark", "Baseline", "Current",
+                "Change", "p", "Alloc", ""));
+        for (Harness.Result result : current) {
+            Harness.Result old = before.get(result.name);
+            if (old == null) {
+                System.out.println(String.format("%-32s %12s %12s %9s %9s %9s  %s", result.name, "-",
+                        duration(result.mean()), "", "", "", "new"));
+                continue;
+            }
+
+            double change = result.mean() / old.mean() - 1;
+            double p = Statistics.welchTTest(old.nanosPerOp, result.nanosPerOp);
+            double allocationChange = old.bytesPerOp() == 0 ? 0 : result.bytesPerOp() / old.bytesPerOp() - 1;
+
+            String verdict = "";
+            if (p < SIGNIFICANCE && change > threshold) {
+                verdict = "REGRESSED";
+                regressed = true;
+            } else if (p < SIGNIFICANCE && change < -threshold) {
+                verdict = "improved";
+            } else if (p >= SIGNIFICANCE && Math.abs(change) > threshold) {
+                verdict = "(noise?)";
+            }
+            System.out.println(String.format("%-32s %12s %12s %+8.1f%% %9.4f %+8.1f%%  %s", result.name,
+                    duration(old.mean()), duration(result.mean()), change * 100, p, allocationChange * 100, verdict));
+        }
+
+        System.out.println(String.format("Threshold %.1f%%, significance %.2f (Welch's t-test on iteration times).",
+                threshold * 100, SIGNIFICANCE));
+        return regressed;
+    }
+
+    private static String duration(double nanos) {
+        if (nanos >= 1e6)
+            return String.format("%.3fms", nanos / 1e6);
+        if (nanos >= 1e3)
+            return String.format("%.3fus", nanos / 1e3);
+        return String.format("%.1fns", nanos);
+    }
+
+    private static String quote(String string) {
+        return "\"" + string.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String number(double value) {
+        // JSON has no NaN, which is the error of a single sample
+        return Double.isNaN(value) ? "null" : Double.toString(value);
+    }
+
+    private static String array(double[] values) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                json.append(", ");
+            json.append(values[i]);
+        }
+        return json.append("]").toString();
+    }
+
+    private static double[] doubles(Object json) {
+        List<?> list = (List<?>) json;
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (Double) list.get(i);
+        }
+        return values;
+    }
+
+    /* Just enough of a JSON parser to read baselines back: objects, arrays, strings, numbers and null. */
+    private static class JsonReader {
+        private final String json;
+        private int current = 0;
+
+        JsonReader(String json) {
+            this.json = json;
+        }
+
+        Object read() throws IOException {
+            Object value = value();
+            skipWhitespace();
+            if (current != json.length())
+                throw error("Expected end of input");
+            return value;
+        }
+
+        private Object value() throws IOException {
+            skipWhitespace();
+            if (current >= json.length())
+                throw error("Unexpected end of input");
+
+            char c = json.charAt(current);
+            if (c == '{')
+                return object();
+            if (c == '[')
+                return array();
+            if (c == '"')
+                return string();
+            if (json.startsWith("null", current)) {
+                current += 4;
+                return null;
+            }
+            return number();
+        }
+
+        private Map<String, Object> object() throws IOException {
+            Map<String, Object> object = new LinkedHashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                current++;
+                return object;
+            }
+            do {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                object.put(key, value());
+                skipWhitespace();
+            } while (match(','));
+            expect('}');
+            return object;
+        }
+
+        private List<Object> array() throws IOException {
+            List<Object> array = new ArrayList<>();
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                current++;
+                return array;
+            }
+            do {
+                array.add(value());
+                skipWhitespace();
+            } while (match(','));
+            expect(']');
+            return array;
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            while (peek() != '"') {
+                char c = json.charAt(current++);
+                if (c == '\\')
+                    c = json.charAt(current++);
+                string.append(c);
+            }
+            current++;
+            return string.toString();
+        }
+
+        private Double number() throws IOException {
+            int start = current;
+            while (current < json.length() && "+-0123456789.eE".indexOf(json.charAt(current)) != -1) {
+                current++;
+            }
+            try {
+                return Double.parseDouble(json.substring(start, current));
+            } catch (NumberFormatException e) {
+                throw error("Expected a value");
+            }
+        }
+
+        private char peek() throws IOException {
+            if (current >= json.length())
+                throw error("Unexpected end of input");
+            return json.charAt(current);
+        }
+
+        private boolean match(char expected) throws IOException {
+            if (peek() != expected)
+                return false;
+            current++;
+            return true;
+        }
+
+        private void expect(char expected) throws IOException {
+            if (!match(expected))
+                throw error("Expected '" + expected + "'");
+        }
+
+        private void skipWhitespace() {
+            while (current < json.length() && Character.isWhitespace(json.charAt(current))) {
+                current++;
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at offset " + current + " of the baseline.");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * One thing the harness measures. setUp() runs once in each fork, before any
+ * iterations, so only run() is timed.
+ */
+abstract class Benchmark {
+    final String name;
+
+    Benchmark(String name) {
+        this.name = name;
+    }
+
+    void setUp() throws Exception {
+    }
+
+    /*
+     * The operation being measured. Whatever it returns is kept by the harness,
+     * so the JIT can't throw the work away.
+     */
+    abstract Object run();
+}
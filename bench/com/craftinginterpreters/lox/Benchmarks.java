@@ -0,0 +1,350 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The benchmark suite: every script in lox/robert_nystrom/test/benchmark run
+ * end to end, plus microbenchmarks for each stage of the interpreter. It lives
+ * in the interpreter's package (but not its source tree) so it can reach the
+ * package-private classes.
+ *
+ * Run it with "make bench", e.g. make bench ARGS="--forks=1 script.fib".
+ */
+class Benchmarks {
+    static final Path SCRIPTS = Paths.get("lox/robert_nystrom/test/benchmark");
+
+    public static void main(String[] args) throws Exception {
+        Harness harness = new Harness();
+        List<String> rest = harness.parseOptions(args);
+        String child = null;
+        Path save = null; // Where to write the results as a baseline
+        Path compare = null; // A baseline to compare the results against
+        double threshold = 0.05; // How much slower counts as a regression
+        if (rest != null) {
+            for (String arg : rest) {
+                if (arg.startsWith("--child=")) {
+                    child = arg.substring("--child=".length());
+                } else if (arg.startsWith("--save=")) {
+                    save = Paths.get(arg.substring("--save=".length()));
+                } else if (arg.startsWith("--compare=")) {
+                    compare = Paths.get(arg.substring("--compare=".length()));
+                } else if (arg.startsWith("--threshold=") && isNumber(arg.substring("--threshold=".length()))) {
+                    threshold = Double.parseDouble(arg.substring("--threshold=".length())) / 100;
+                } else {
+                    rest = null;
+                    break;
+                }
+            }
+        }
+        if (rest == null) {
+            System.err.println("Usage: benchmarks " + Harness.usage()
+                    + " [--save=baseline.json]? [--compare=baseline.json]? [--threshold=percent]?");
+            System.exit(64);
+        }
+
+        List<Benchmark> benchmarks = all();
+        if (child != null) {
+            for (Benchmark benchmark : benchmarks) {
+                if (benchmark.name.equals(child))
+                    harness.runChild(benchmark);
+            }
+            return;
+        }
+
+        // Read the baseline first, so a bad path fails before the (long) run
+        List<Harness.Result> baseline = null;
+        if (compare != null) {
+            try {
+                baseline = Baseline.load(compare);
+            } catch (IOException e) {
+                System.err.println("Can't read baseline: " + e);
+                System.exit(66);
+            }
+        }
+
+        List<Harness.Result> results = harness.runAll(benchmarks, Benchmarks.class);
+        Harness.printTable(results);
+        if (save != null)
+            Baseline.save(save, results);
+        if (baseline != null) {
+            System.out.println();
+            if (Baseline.compare(baseline, results, threshold))
+                System.exit(1);
+        }
+    }
+
+    private static boolean isNumber(String text) {
+        try {
+            Double.parseDouble(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static List<Benchmark> all() throws IOException {
+        List<Benchmark> benchmarks = new ArrayList<>();
+        for (Path script : scripts()) {
+            benchmarks.add(new Script(script));
+        }
+        benchmarks.add(new ScanTokens());
+        benchmarks.add(new Parse());
+        benchmarks.add(new Resolve());
+        benchmarks.add(new EnvironmentGetAt());
+        benchmarks.add(new EnvironmentGet());
+        benchmarks.add(new InstanceGet());
+        return benchmarks;
+    }
+
+    static List<Path> scripts() throws IOException {
+        try (Stream<Path> files = Files.list(SCRIPTS)) {
+            return files.filter(path -> path.toString().endsWith(".lox")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), Charset.defaultCharset());
+    }
+
+    /* Benchmarks only use working code, so any error is a bug in the benchmark. */
+    static final ErrorReporter failOnError = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            throw new IllegalStateException("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            throw new IllegalStateException("[line " + error.token.line + "] " + error.getMessage(), error);
+        }
+    };
+
+    /* A script compiled and run from source, with its output thrown away. */
+    static class Script extends Benchmark {
+        private final Path path;
+        private final PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        private final LoxEngine engine = new LoxEngine();
+        private String source;
+
+        Script(Path path) {
+            super("script." + path.getFileName().toString().replace(".lox", ""));
+            this.path = path;
+        }
+
+        @Override
+        void setUp() throws IOException {
+            source = read(path);
+        }
+
+        @Override
+        Object run() {
+            ExecutionResult result = engine.execute(engine.compile(source), out);
+            if (!result.succeeded())
+                throw new IllegalStateException(name + " failed: " + result.errors());
+            return result;
+        }
+    }
+
+    /* The front end stages run over every benchmark script, each stage on the previous one's output. */
+    static class ScanTokens extends Benchmark {
+        private final List<String> sources = new ArrayList<>();
+
+        ScanTokens() {
+            super("scanner.scanTokens");
+        }
+
+        @Override
+        void setUp() throws IOException {
+            for (Path script : scripts()) {
+                sources.add(read(script));
+            }
+        }
+
+        @Override
+        Object run() {
+            Object last = null;
+            for (String source : sources) {
+                last = new Scanner(source, failOnError).scanTokens();
+            }
+            return last;
+        }
+    }
+
+    static class Parse extends Benchmark {
+        private final List<List<Token>> programs = new ArrayList<>();
+
+        Parse() {
+            super("parser.parse");
+        }
+
+        @Override
+        void setUp() throws IOException {
+            for (Path script : scripts()) {
+                programs.add(new Scanner(read(script), failOnError).scanTokens());
+            }
+        }
+
+        @Override
+        Object run() {
+            Object last = null;
+            for (List<Token> tokens : programs) {
+                last = new Parser(tokens, failOnError).parse();
+            }
+            return last;
+        }
+    }
+
+    static class Resolve extends Benchmark {
+        private final List<List<Stmt>> programs = new ArrayList<>();
+
+        Resolve() {
+            super("resolver.resolve");
+        }
+
+        @Override
+        void setUp() throws IOException {
+            for (Path script : scripts()) {
+                List<Token> tokens = new Scanner(read(script), failOnError).scanTokens();
+                programs.add(new Parser(tokens, failOnError).parse());
+            }
+        }
+
+        @Override
+        Object run() {
+            Object last = null;
+            for (List<Stmt> statements : programs) {
+                HashMap<Expr, Integer> locals = new HashMap<>();
+                new Resolver(locals, failOnError).resolve(statements);
+                last = locals;
+            }
+            return last;
+        }
+    }
+
+    /*
+     * A chain of environments like a function nested a few levels deep, each
+     * with a handful of variables.
+     */
+    static Environment nestedEnvironments(int depth, int variables) {
+        Environment environment = new Environment();
+        for (int level = 0; level <= depth; level++) {
+            if (level > 0)
+                environment = new Environment(environment);
+            for (int i = 0; i < variables; i++) {
+                environment.define("v" + level + "_" + i, (double) i);
+            }
+        }
+        return environment;
+    }
+
+    /* Lookups of resolved locals, at every distance, the way the interpreter does them. */
+    static class EnvironmentGetAt extends Benchmark {
+        private static final int DEPTH = 4;
+        private static final int VARIABLES = 8;
+        private Environment environment;
+        private final List<String> names = new ArrayList<>();
+
+        EnvironmentGetAt() {
+            super("environment.getAt");
+        }
+
+        @Override
+        void setUp() {
+            environment = nestedEnvironments(DEPTH, VARIABLES);
+            for (int level = 0; level <= DEPTH; level++) {
+                for (int i = 0; i < VARIABLES; i++) {
+                    names.add("v" + level + "_" + i);
+                }
+            }
+        }
+
+        @Override
+        Object run() {
+            double sum = 0;
+            for (int level = 0; level <= DEPTH; level++) {
+                for (int i = 0; i < VARIABLES; i++) {
+                    sum += (Double) environment.getAt(DEPTH - level, names.get(level * VARIABLES + i));
+                }
+            }
+            return sum;
+        }
+    }
+
+    /* Lookups of globals from the innermost environment, which walk the whole chain. */
+    static class EnvironmentGet extends Benchmark {
+        private static final int DEPTH = 4;
+        private static final int VARIABLES = 8;
+        private Environment environment;
+        private final List<Token> globals = new ArrayList<>();
+
+        EnvironmentGet() {
+            super("environment.get");
+        }
+
+        @Override
+        void setUp() {
+            environment = nestedEnvironments(DEPTH, VARIABLES);
+            for (int i = 0; i < VARIABLES; i++) {
+                globals.add(new Token(TokenType.IDENTIFIER, "v0_" + i, null, 1));
+            }
+        }
+
+        @Override
+        Object run() {
+            double sum = 0;
+            for (Token name : globals) {
+                sum += (Double) environment.get(name);
+            }
+            return sum;
+        }
+    }
+
+    /* Property lookups: fields, methods, and methods inherited from a superclass. */
+    static class InstanceGet extends Benchmark {
+        private static final String SOURCE = "class Base { inherited() {} }\n"
+                + "class Derived < Base {\n"
+                + "  init() { this.a = 1; this.b = 2; this.c = 3; this.d = 4; }\n"
+                + "  method() {}\n"
+                + "}\n"
+                + "var instance = Derived();\n";
+
+        private LoxInstance instance;
+        private final List<Token> properties = new ArrayList<>();
+
+        InstanceGet() {
+            super("instance.get");
+        }
+
+        @Override
+        void setUp() {
+            ModuleLoader modules = new ModuleLoader(false, false, null, null);
+            Interpreter interpreter = new Interpreter(modules, failOnError, OutputSink.of(System.out));
+            interpreter.interpret(modules.load(null, SOURCE, failOnError));
+            instance = (LoxInstance) interpreter.globals.get(new Token(TokenType.IDENTIFIER, "instance", null, 1));
+
+            for (String name : new String[] { "a", "b", "c", "d", "method", "inherited" }) {
+                properties.add(new Token(TokenType.IDENTIFIER, name, null, 1));
+            }
+        }
+
+        @Override
+        Object run() {
+            Object last = null;
+            for (Token property : properties) {
+                last = instance.get(property);
+            }
+            return last;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Measures each front end phase on a large program: how fast it goes, and how
+ * much memory it needs. The program is generated by ProgramGenerator, or read
+ * from the files given.
+ *
+ * Each phase reports its throughput in MB of source per second (the median of
+ * the measured runs), the bytes it allocated, the peak heap use while it ran,
+ * and roughly how much of the heap its result keeps alive.
+ */
+class FrontEnd {
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static int warmup = 3;
+    private static int iterations = 5;
+
+    public static void main(String[] args) throws Exception {
+        ProgramGenerator generator = new ProgramGenerator();
+        List<String> files = new ArrayList<>();
+        boolean ok = true;
+        for (String arg : args) {
+            try {
+                if (arg.startsWith("--warmup=")) {
+                    warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+                } else if (arg.startsWith("--iterations=")) {
+                    iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+                } else if (!arg.startsWith("-")) {
+                    files.add(arg);
+                } else if (!generator.parseOption(arg)) {
+                    ok = false;
+                }
+            } catch (NumberFormatException e) {
+                ok = false;
+            }
+        }
+        if (!ok || iterations < 1) {
+            System.err.println("Usage: front_end [--warmup=n]? [--iterations=n]? " + ProgramGenerator.usage()
+                    + " [file...]");
+            System.exit(64);
+        }
+
+        String source;
+        if (files.isEmpty()) {
+            source = generator.generate();
+            System.out.println("Generated program: " + String.join(",", generator.kinds) + ", seed "
+                    + generator.seed);
+        } else {
+            StringBuilder sources = new StringBuilder();
+            for (String file : files) {
+                sources.append(Benchmarks.read(Paths.get(file))).append('\n');
+            }
+            source = sources.toString();
+            System.out.println("Program: " + String.join(" ", files));
+        }
+        double megabytes = source.length() / (double) (1 << 20);
+        System.out.println(String.format("%.2f MB, %d lines", megabytes, source.chars().filter(c -> c == '\n').count()));
+
+        // Each phase works on the previous one's output, which is kept alive outside the measurement
+        List<Token> tokens = new Scanner(source, Benchmarks.failOnError).scanTokens();
+        List<Stmt> statements = new Parser(tokens, Benchmarks.failOnError).parse();
+        System.out.println(tokens.size() + " tokens, " + statements.size() + " top-level statements");
+        System.out.println();
+
+        System.out.println(String.format("%-10s %12s %12s %14s %14s %14s", "Phase", "Time", "MB/s", "Allocated",
+                "Peak heap", "Retained"));
+        measure("scan", megabytes, () -> new Scanner(source, Benchmarks.failOnError).scanTokens());
+        measure("parse", megabytes, () -> new Parser(tokens, Benchmarks.failOnError).parse());
+        measure("resolve", megabytes, () -> {
+            HashMap<Expr, Integer> locals = new HashMap<>();
+            new Resolver(locals, Benchmarks.failOnError).resolve(statements);
+            return locals;
+        });
+        // Parsing and resolving at once, and parsing with function bodies deferred
+        measure("fused", megabytes, () -> new Parser(tokens, Benchmarks.failOnError, new HashMap<>(), false).parse());
+        measure("lazy", megabytes,
+                () -> new Parser(tokens, Benchmarks.failOnError, new ConcurrentHashMap<>(), true).parse());
+    }
+
+    private static void measure(String phase, double megabytes, Supplier<Object> run) {
+        for (int i = 0; i < warmup; i++) {
+            Harness.sink = run.get();
+        }
+        Harness.sink = null;
+
+        // Memory, measured on a run of its own so collections don't muddy the timings
+        long heapBefore = collectGarbage();
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        Object result = run.get();
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        // Other garbage can make this a little off, even below zero
+        long retained = Math.max(collectGarbage() - heapBefore, 0);
+        Harness.sink = result;
+        result = null;
+        Harness.sink = null;
+
+        double[] seconds = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            Harness.sink = run.get();
+            seconds[i] = (System.nanoTime() - start) / 1e9;
+        }
+        Harness.sink = null;
+        Arrays.sort(seconds);
+        double median = seconds[seconds.length / 2];
+
+        System.out.println(String.format("%-10s %10.1fms %12.1f %14s %14s %14s", phase, median * 1000,
+                megabytes / median, bytes(allocated), bytes(peak - heapBefore), bytes(retained)));
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pools.add(pool);
+        }
+        return pools;
+    }
+
+    /* Collect until the heap stops shrinking. Returns the bytes still in use. */
+    private static long collectGarbage() {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            long now = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+            if (now >= used)
+                return now;
+            used = now;
+        }
+        return used;
+    }
+
+    private static String bytes(long bytes) {
+        if (Math.abs(bytes) >= 1 << 20)
+            return String.format("%.1f MB", bytes / (double) (1 << 20));
+        return String.format("%.1f KB", bytes / 1024.0);
+    }
+}
@@ -0,0 +1,206 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small benchmark harness in the style of JMH (which needs a Maven build this
+ * repo doesn't have). Each benchmark runs in fresh JVMs ("forks"), so one
+ * benchmark's JIT profile can't skew another's. In each fork it runs some
+ * warmup iterations, which are thrown away, then the measured iterations. An
+ * iteration calls the benchmark over and over for a fixed time and records
+ * the average time and bytes allocated per call.
+ */
+class Harness {
+    int warmupIterations = 3;
+    int iterations = 5;
+    long iterationNanos = 1_000_000_000L;
+    int forks = 2; // 0 runs every benchmark in this JVM
+    String filter = null; // Only run benchmarks whose name contains this
+
+    // Keeps every result, so the JIT can't decide a benchmark's work is unused
+    static volatile Object sink;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /* What we measured for one benchmark, across all forks. */
+    static class Result {
+        final String name;
+        final double[] nanosPerOp; // One per measured iteration
+        final double[] bytesPerOp;
+
+        Result(String name, double[] nanosPerOp, double[] bytesPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        double mean() {
+            return Statistics.mean(nanosPerOp);
+        }
+
+        /* Half the width of the 99.9% confidence interval, as JMH reports it. */
+        double error() {
+            return Statistics.error(nanosPerOp, 0.999);
+        }
+
+        double bytesPerOp() {
+            return Statistics.mean(bytesPerOp);
+        }
+    }
+
+    /*
+     * Parse the harness options, returning the arguments it didn't recognize, or
+     * null if an option's value was bad.
+     */
+    List<String> parseOptions(String[] args) {
+        List<String> rest = new ArrayList<>();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--warmup=")) {
+                    warmupIterations = Integer.parseInt(arg.substring("--warmup=".length()));
+                } else if (arg.startsWith("--iterations=")) {
+                    iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+                } else if (arg.startsWith("--time=")) {
+                    iterationNanos = Long.parseLong(arg.substring("--time=".length())) * 1_000_000L;
+                } else if (arg.startsWith("--forks=")) {
+                    forks = Integer.parseInt(arg.substring("--forks=".length()));
+                } else if (!arg.startsWith("-") && filter == null) {
+                    filter = arg;
+                } else {
+                    rest.add(arg);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return rest;
+    }
+
+    static String usage() {
+        return "[--warmup=n]? [--iterations=n]? [--time=ms]? [--forks=n]? [filter]";
+    }
+
+    List<Result> runAll(List<Benchmark> benchmarks, Class<?> mainClass) throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks) {
+            if (filter != null && !benchmark.name.contains(filter))
+                continue;
+
+            System.err.println("# " + benchmark.name);
+            Result result = forks == 0 ? runInProcess(benchmark) : runForks(benchmark, mainClass);
+            System.err.println(String.format("#   %s", format(result)));
+            results.add(result);
+        }
+        return results;
+    }
+
+    /* Run one benchmark's warmup and measured iterations in this JVM. */
+    Result runInProcess(Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(benchmark);
+        }
+
+        double[] nanos = new double[iterations];
+        double[] bytes = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            double[] sample = iteration(benchmark);
+            nanos[i] = sample[0];
+            bytes[i] = sample[1];
+        }
+        return new Result(benchmark.name, nanos, bytes);
+    }
+
+    /* Call the benchmark until the iteration time is up. Returns nanoseconds and bytes per call. */
+    private double[] iteration(Benchmark benchmark) {
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long elapsed;
+        long ops = 0;
+        do {
+            sink = benchmark.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        return new double[] { (double) elapsed / ops, (double) allocated / ops };
+    }
+
+    /*
+     * Run the benchmark in new JVMs with the same options as this one. Each child
+     * runs main with --child=<name> and prints a "sample" line per iteration.
+     */
+    private Result runForks(Benchmark benchmark, Class<?> mainClass) throws IOException, InterruptedException {
+        List<Double> nanos = new ArrayList<>();
+        List<Double> bytes = new ArrayList<>();
+        for (int fork = 0; fork < forks; fork++) {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(mainClass.getName());
+            command.add("--child=" + benchmark.name);
+            command.add("--warmup=" + warmupIterations);
+            command.add("--iterations=" + iterations);
+            command.add("--time=" + iterationNanos / 1_000_000L);
+
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("sample "))
+                        continue;
+                    String[] parts = line.split(" ");
+                    nanos.add(Double.parseDouble(parts[1]));
+                    bytes.add(Double.parseDouble(parts[2]));
+                }
+            }
+            if (process.waitFor() != 0)
+                throw new IllegalStateException("Fork for " + benchmark.name + " failed.");
+        }
+        return new Result(benchmark.name, toArray(nanos), toArray(bytes));
+    }
+
+    /* The child side of runForks(). */
+    void runChild(Benchmark benchmark) throws Exception {
+        Result result = runInProcess(benchmark);
+        for (int i = 0; i < result.nanosPerOp.length; i++) {
+            System.out.println("sample " + result.nanosPerOp[i] + " " + result.bytesPerOp[i]);
+        }
+    }
+
+    static void printTable(List<Result> results) {
+        System.out.println(String.format("%-32s %5s %14s    %12s  %-5s %14s", "Benchmark", "Cnt", "Score", "Error",
+                "Units", "Alloc B/op"));
+        for (Result result : results) {
+            System.out.println(format(result));
+        }
+    }
+
+    private static String format(Result result) {
+        double mean = result.mean();
+        // Pick a unit that keeps the score readable
+        double scale = mean >= 1e6 ? 1e6 : mean >= 1e3 ? 1e3 : 1;
+        String unit = scale == 1e6 ? "ms/op" : scale == 1e3 ? "us/op" : "ns/op";
+        return String.format("%-32s %5d %14.3f +- %12.3f  %-5s %14.1f", result.name, result.nanosPerOp.length,
+                mean / scale, result.error() / scale, unit, result.bytesPerOp());
+    }
+
+    private static double[] toArray(List<Double> list) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
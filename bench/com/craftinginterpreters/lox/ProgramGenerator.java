@@ -0,0 +1,248 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes large, valid Lox programs for benchmarking the front end. The same
+ * options and seed always give the same program.
+ *
+ * A program is a sequence of top-level pieces, each one of the chosen kinds in
+ * turn, until it reaches the requested size:
+ * - classes: a chain of subclasses with fields, methods and super calls
+ * - closures: functions nested `depth` deep, each capturing its parents' locals
+ * - expressions: arithmetic and comparison chains `chain` operands long
+ * - strings: string literals of `stringLength` characters, spanning lines
+ * - functions: ordinary functions with loops, ifs and calls
+ */
+class ProgramGenerator {
+    static final List<String> KINDS = Arrays.asList("classes", "closures", "expressions", "strings", "functions");
+
+    long size = 1 << 20; // In bytes (characters)
+    long seed = 42;
+    List<String> kinds = KINDS;
+    int depth = 16;
+    int chain = 200;
+    int stringLength = 64 * 1024;
+
+    private Random random;
+    private StringBuilder out;
+    private int counter;
+    private int classes; // Classes written so far, so later ones can extend them
+
+    /* Apply a generator option. Returns false if it isn't one. */
+    boolean parseOption(String arg) {
+        try {
+            if (arg.startsWith("--size=")) {
+                size = (long) (Double.parseDouble(arg.substring("--size=".length())) * (1 << 20));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--kinds=")) {
+                kinds = Arrays.asList(arg.substring("--kinds=".length()).split(","));
+                return KINDS.containsAll(kinds);
+            } else if (arg.startsWith("--depth=")) {
+                depth = Integer.parseInt(arg.substring("--depth=".length()));
+            } else if (arg.startsWith("--chain=")) {
+                chain = Integer.parseInt(arg.substring("--chain=".length()));
+            } else if (arg.startsWith("--string=")) {
+                stringLength = Integer.parseInt(arg.substring("--string=".length()));
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    static String usage() {
+        return "[--size=MB]? [--seed=n]? [--kinds=" + String.join(",", KINDS)
+                + "]? [--depth=n]? [--chain=n]? [--string=n]?";
+    }
+
+    String generate() {
+        random = new Random(seed);
+        out = new StringBuilder((int) Math.min(size + 64 * 1024, Integer.MAX_VALUE - 8));
+        counter = 0;
+        classes = 0;
+
+        for (int piece = 0; out.length() < size; piece++) {
+            switch (kinds.get(piece % kinds.size())) {
+                case "classes":
+                    writeClass();
+                    break;
+                case "closures":
+                    writeClosures();
+                    break;
+                case "expressions":
+                    writeExpression();
+                    break;
+                case "strings":
+                    writeString();
+                    break;
+                case "functions":
+                    writeFunction();
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    private void writeClass() {
+        String name = "Class" + classes;
+        boolean subclass = classes > 0;
+        out.append("class ").append(name);
+        if (subclass)
+            out.append(" < Class").append(random.nextInt(classes));
+        out.append(" {\n");
+
+        out.append("  init(a, b) {\n");
+        out.append("    this.a = a;\n");
+        out.append("    this.b = b;\n");
+        out.append("    this.total = a + b;\n");
+        out.append("  }\n");
+        // Every class has the same methods, so a subclass can always call super's
+        int methods = 3 + random.nextInt(4);
+        for (int i = 0; i < methods; i++) {
+            out.append("  method").append(i).append("(x) {\n");
+            if (subclass && random.nextBoolean()) {
+                out.append("    return super.method").append(i).append("(x) + this.a;\n");
+            } else {
+                out.append("    var y = x * ").append(random.nextInt(100)).append(" + this.b;\n");
+                out.append("    if (y > this.total) return y - this.a;\n");
+                if (i > 0) {
+                    out.append("    return this.method").append(i - 1).append("(y) + 1;\n");
+                } else {
+                    out.append("    return y;\n");
+                }
+            }
+            out.append("  }\n");
+        }
+        out.append("}\n\n");
+        classes++;
+    }
+
+    private void writeClosures() {
+        int id = counter++;
+        out.append("fun closure").append(id).append("(a0) {\n");
+        for (int level = 1; level <= depth; level++) {
+            String indent = indent(level);
+            out.append(indent).append("var v").append(level).append(" = a").append(level - 1).append(" + ")
+                    .append(random.nextInt(10)).append(";\n");
+            out.append(indent).append("fun inner").append(level).append("(a").append(level).append(") {\n");
+        }
+
+        // The innermost function uses a variable from every level
+        out.append(indent(depth + 1)).append("return a").append(depth);
+        for (int level = 1; level <= depth; level++) {
+            out.append(" + v").append(level);
+        }
+        out.append(";\n");
+
+        for (int level = depth; level >= 1; level--) {
+            String indent = indent(level);
+            out.append(indent).append("}\n");
+            out.append(indent).append("return inner").append(level).append(";\n");
+        }
+        out.append("}\n\n");
+    }
+
+    private void writeExpression() {
+        out.append("var expression").append(counter++).append(" = ");
+        int open = 0;
+        for (int i = 0; i < chain; i++) {
+            // Some grouping, but never deeply nested
+            boolean group = open < 3 && random.nextInt(8) == 0;
+            // Never divide by a group, which might be zero
+            if (i > 0)
+                out.append(' ').append(operator(!group)).append(' ');
+            if (group) {
+                out.append('(');
+                open++;
+            }
+            out.append(operand());
+            if (open > 0 && random.nextInt(4) == 0) {
+                out.append(')');
+                open--;
+            }
+        }
+        while (open-- > 0) {
+            out.append(')');
+        }
+        out.append(" > 0 and !(nil == false) or true;\n\n");
+    }
+
+    private String operator(boolean canDivide) {
+        switch (random.nextInt(canDivide ? 4 : 3)) {
+            case 0:
+                return "+";
+            case 1:
+                return "-";
+            case 2:
+                return "*";
+            default:
+                return "/";
+        }
+    }
+
+    private String operand() {
+        if (random.nextInt(4) == 0)
+            return "-" + random.nextInt(1000) + "." + (1 + random.nextInt(99));
+        return Integer.toString(1 + random.nextInt(1000));
+    }
+
+    private void writeString() {
+        out.append("var string").append(counter++).append(" = \"");
+        for (int i = 0; i < stringLength; i++) {
+            // Mostly letters, with the odd line break and space
+            int c = random.nextInt(64);
+            out.append(c == 0 ? '\n' : c < 8 ? ' ' : (char) ('a' + c % 26));
+        }
+        out.append("\";\n\n");
+    }
+
+    private void writeFunction() {
+        int id = counter++;
+        out.append("fun function").append(id).append("(n, m) {\n");
+        out.append("  var total = 0;\n");
+        out.append("  for (var i = 0; i < n; i = i + 1) {\n");
+        out.append("    if (i > m and total < ").append(random.nextInt(1000)).append(") {\n");
+        out.append("      total = total + i * m;\n");
+        out.append("    } else {\n");
+        out.append("      var step = i - 1;\n");
+        out.append("      total = total - step;\n");
+        out.append("    }\n");
+        out.append("  }\n");
+        out.append("  while (total > 100) total = total / 2;\n");
+        if (id > 0)
+            out.append("  if (total < 0) return function").append(random.nextInt(id)).append("(m, n);\n");
+        out.append("  print total;\n");
+        out.append("  return total;\n");
+        out.append("}\n\n");
+    }
+
+    private static String indent(int level) {
+        StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < level; i++) {
+            indent.append("  ");
+        }
+        return indent.toString();
+    }
+
+    /* Print a generated program, e.g. to save it for running. */
+    public static void main(String[] args) {
+        ProgramGenerator generator = new ProgramGenerator();
+        List<String> bad = new ArrayList<>();
+        for (String arg : args) {
+            if (!generator.parseOption(arg))
+                bad.add(arg);
+        }
+        if (!bad.isEmpty()) {
+            System.err.println("Usage: program_generator " + usage());
+            System.exit(64);
+        }
+        System.out.print(generator.generate());
+    }
+}
@@ -0,0 +1,147 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The bits of statistics the benchmark harness needs: means, confidence
+ * intervals and Student's t distribution.
+ */
+class Statistics {
+    static double mean(double[] samples) {
+        double sum = 0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        return sum / samples.length;
+    }
+
+    /* Sample variance (dividing by n - 1) */
+    static double variance(double[] samples) {
+        if (samples.length < 2)
+            return 0;
+        double mean = mean(samples);
+        double sum = 0;
+        for (double sample : samples) {
+            sum += (sample - mean) * (sample - mean);
+        }
+        return sum / (samples.length - 1);
+    }
+
+    static double standardDeviation(double[] samples) {
+        return Math.sqrt(variance(samples));
+    }
+
+    /* Half the width of the confidence interval for the mean, like JMH's "Error" column. */
+    static double error(double[] samples, double confidence) {
+        if (samples.length < 2)
+            return Double.NaN;
+        double t = studentTQuantile(1 - (1 - confidence) / 2, samples.length - 1);
+        return t * standardDeviation(samples) / Math.sqrt(samples.length);
+    }
+
+    /*
+     * Welch's t-test: the two-sided p-value for the hypothesis that the two
+     * samples have the same mean, without assuming the same variance.
+     */
+    static double welchTTest(double[] a, double[] b) {
+        double va = variance(a) / a.length;
+        double vb = variance(b) / b.length;
+        if (va + vb == 0)
+            return mean(a) == mean(b) ? 1 : 0;
+
+        double t = (mean(a) - mean(b)) / Math.sqrt(va + vb);
+        // Welch-Satterthwaite approximation of the degrees of freedom
+        double degreesOfFreedom = (va + vb) * (va + vb)
+                / (va * va / (a.length - 1) + vb * vb / (b.length - 1));
+        return 2 * studentTCdf(-Math.abs(t), degreesOfFreedom);
+    }
+
+    /* P(T <= t) for Student's t distribution with the given degrees of freedom. */
+    static double studentTCdf(double t, double degreesOfFreedom) {
+        double x = degreesOfFreedom / (degreesOfFreedom + t * t);
+        double tail = 0.5 * regularizedIncompleteBeta(degreesOfFreedom / 2, 0.5, x);
+        return t > 0 ? 1 - tail : tail;
+    }
+
+    /* The t such that P(T <= t) = p, found by bisection since the CDF is monotonic. */
+    static double studentTQuantile(double p, double degreesOfFreedom) {
+        double low = -1e3;
+        double high = 1e3;
+        for (int i = 0; i < 200; i++) {
+            double middle = (low + high) / 2;
+            if (studentTCdf(middle, degreesOfFreedom) < p) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /* I_x(a, b), using the continued fraction from Numerical Recipes (6.4). */
+    private static double regularizedIncompleteBeta(double a, double b, double x) {
+        if (x <= 0)
+            return 0;
+        if (x >= 1)
+            return 1;
+
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b)
+                + a * Math.log(x) + b * Math.log(1 - x));
+        // The fraction converges quickly on one side of this point, so use symmetry for the other
+        if (x < (a + 1) / (a + b + 2))
+            return front * betaContinuedFraction(a, b, x) / a;
+        return 1 - front * betaContinuedFraction(b, a, 1 - x) / b;
+    }
+
+    /* Evaluated with the modified Lentz method. */
+    private static double betaContinuedFraction(double a, double b, double x) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        if (Math.abs(d) < tiny)
+            d = tiny;
+        d = 1 / d;
+        double result = d;
+
+        for (int m = 1; m <= 300; m++) {
+            // Even step
+            double numerator = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m));
+            d = 1 + numerator * d;
+            if (Math.abs(d) < tiny)
+                d = tiny;
+            c = 1 + numerator / c;
+            if (Math.abs(c) < tiny)
+                c = tiny;
+            d = 1 / d;
+            result *= d * c;
+
+            // Odd step
+            numerator = -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+            d = 1 + numerator * d;
+            if (Math.abs(d) < tiny)
+                d = tiny;
+            c = 1 + numerator / c;
+            if (Math.abs(c) < tiny)
+                c = tiny;
+            d = 1 / d;
+            double delta = d * c;
+            result *= delta;
+
+            if (Math.abs(delta - 1) < 1e-12)
+                break;
+        }
+        return result;
+    }
+
+    /* ln(Gamma(x)) for x > 0, with the Lanczos approximation. */
+    private static double logGamma(double x) {
+        final double[] coefficients = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+        double y = x;
+        double temp = x + 5.5;
+        temp -= (x + 0.5) * Math.log(temp);
+        double series = 1.000000000190015;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -temp + Math.log(2.5066282746310005 * series / x);
+    }
+}
@@ -1,7 +1,7 @@
 # Copied from munificent/craftinginterpreters
 
 # Makefile for building a single directory of Java source files. It requires
-# a DIR variable to be set.
+# a DIR variable to be set. LIBS can add classes the sources depend on.
 
 BUILD_DIR := build
 
@@ -16,7 +16,7 @@ default: $(CLASSES)
 # Compile a single .java file to .class.
 $(BUILD_DIR)/$(DIR)/%.class: $(DIR)/%.java
 	@ mkdir -p $(BUILD_DIR)/$(DIR)
-	@ javac -cp $(DIR) -d $(BUILD_DIR)/$(DIR) $(JAVA_OPTIONS) -implicit:none $<
+	@ javac -cp $(DIR)$(addprefix :,$(LIBS)) -d $(BUILD_DIR)/$(DIR) $(JAVA_OPTIONS) -implicit:none $<
 	@ printf "%8s %-60s %s\n" javac $< "$(JAVA_OPTIONS)"
 
 .PHONY: default
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.io.PrintStream;
 import java.util.List;
 
 import com.craftinginterpreters.lox.Expr.*;
@@ -10,9 +11,9 @@ import com.craftinginterpreters.lox.Stmt.*;
  * This class isn't strictly necessary, just a nice-to-have.
  */
 class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
-    void print(List<Stmt> statements) {
+    void print(List<Stmt> statements, PrintStream out) {
         for (Stmt s : statements) {
-            System.out.println("[parser] statement: " + s.accept(this));
+            out.println("[parser] statement: " + s.accept(this));
         }
     }
 
@@ -43,6 +44,11 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize("expr", expr.expression);
     }
 
+    @Override
+    public String visitImportStmt(Import stmt) {
+        return "(import " + stmt.path.lexeme + ")";
+    }
+
     @Override
     public String visitPrintStmt(Print expr) {
         return parenthesize("print", expr.expression);
@@ -55,7 +61,7 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     @Override
     public String visitVariableExpr(Variable expr) {
-        return parenthesize("var", expr);
+        return expr.name.lexeme;
     }
 
     @Override
@@ -108,7 +114,18 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     @Override
     public String visitFunctionStmt(Function stmt) {
-        return "fun";
+        StringBuilder builder = new StringBuilder("(fun ").append(stmt.name.lexeme).append(" (");
+        for (int i = 0; i < stmt.params.size(); i++) {
+            builder.append(i > 0 ? " " : "").append(stmt.params.get(i).lexeme);
+        }
+        builder.append(")");
+        // Printing a lazy body mustn't parse it
+        if (!Parser.isParsed(stmt.body))
+            return builder.append(" <lazy body>)").toString();
+        for (Stmt s : stmt.body) {
+            builder.append(" ").append(s.accept(this));
+        }
+        return builder.append(")").toString();
     }
 
     @Override
@@ -118,14 +135,18 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     @Override
     public String visitReturnStmt(Stmt.Return stmt) {
-        // TODO Auto-generated method stub
-        return null;
+        return parenthesize("return", stmt.value);
     }
 
     @Override
     public String visitClassStmt(Stmt.Class stmt) {
-        // TODO Auto-generated method stub
-        return null;
+        StringBuilder builder = new StringBuilder("(class ").append(stmt.name.lexeme);
+        if (stmt.superclass != null)
+            builder.append(" < ").append(stmt.superclass.name.lexeme);
+        for (Function method : stmt.methods) {
+            builder.append(" ").append(visitFunctionStmt(method));
+        }
+        return builder.append(")").toString();
     }
 
     @Override
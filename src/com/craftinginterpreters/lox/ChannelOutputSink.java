@@ -0,0 +1,199 @@
+package com.craftinginterpreters.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An output sink that encodes straight into one large buffer and writes it to a
+ * channel when it fills up, instead of going through a PrintStream (which locks
+ * and may flush on every line).
+ *
+ * Output that's waiting in the buffer is written when the sink is flushed, and
+ * also after every line for a terminal, where someone is watching, or within
+ * about 100ms for a pipe, where someone may be (see Flush).
+ *
+ * Like PrintStream, it never throws: once a write fails, the rest of the output
+ * is dropped. Only one thread may print to a sink at a time; the lock is only
+ * there for the flusher thread.
+ */
+class ChannelOutputSink implements OutputSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+
+    /* When output is written, besides when the buffer fills up or the sink is flushed. */
+    enum Flush {
+        EVERY_LINE,
+        // By a daemon thread that writes out every periodic sink's buffer every 100ms,
+        // e.g. a line printed before a long computation
+        PERIODICALLY,
+        // Only then, e.g. for files
+        NEVER
+    }
+
+    // The periodic sinks, weakly, so a sink that's done with can go
+    private static final List<WeakReference<ChannelOutputSink>> periodic = new ArrayList<>();
+    private static Thread flusher;
+
+    private final WritableByteChannel channel;
+    private final boolean lineFlushed;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder encoder;
+    // Whether ASCII characters are one byte each, which they can be copied as
+    private final boolean asciiCompatible;
+    private boolean failed = false;
+
+    ChannelOutputSink(WritableByteChannel channel, Charset charset, Flush flush) {
+        this.channel = channel;
+        this.lineFlushed = flush == Flush.EVERY_LINE;
+        // Characters the charset can't encode become '?', as with PrintStream
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+        if (flush == Flush.PERIODICALLY)
+            flushPeriodically(this);
+    }
+
+    /* A sink for standard output, line flushed if it's interactive. */
+    static ChannelOutputSink stdout() {
+        return new ChannelOutputSink(new FileOutputStream(FileDescriptor.out).getChannel(),
+                Charset.defaultCharset(), System.console() != null ? Flush.EVERY_LINE : Flush.PERIODICALLY);
+    }
+
+    private static void flushPeriodically(ChannelOutputSink sink) {
+        synchronized (periodic) {
+            periodic.add(new WeakReference<>(sink));
+            if (flusher == null) {
+                flusher = new Thread(ChannelOutputSink::flushAll, "lox-output-flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+        }
+    }
+
+    /* The flusher thread's loop. */
+    private static void flushAll() {
+        List<ChannelOutputSink> sinks = new ArrayList<>();
+        for (;;) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            // Flushed outside the list's lock, so a slow write doesn't hold up new sinks
+            synchronized (periodic) {
+                for (Iterator<WeakReference<ChannelOutputSink>> i = periodic.iterator(); i.hasNext();) {
+                    ChannelOutputSink sink = i.next().get();
+                    if (sink == null) {
+                        i.remove();
+                    } else {
+                        sinks.add(sink);
+                    }
+                }
+            }
+            for (ChannelOutputSink sink : sinks) {
+                sink.flush();
+            }
+            sinks.clear();
+        }
+    }
+
+    @Override
+    public synchronized void print(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        if (asciiCompatible) {
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80)
+                    break;
+                if (!buffer.hasRemaining())
+                    write();
+                buffer.put((byte) c);
+            }
+        }
+        if (i < length)
+            encode(CharBuffer.wrap(text, i, length));
+    }
+
+    @Override
+    public synchronized void println(CharSequence line) {
+        print(line);
+        endLine();
+    }
+
+    @Override
+    public synchronized void println(double number) {
+        // Room for any plain integer, so it can go straight into the buffer
+        if (buffer.remaining() < 16)
+            write();
+        if (!asciiCompatible || !NumberFormatter.write(buffer, number))
+            print(NumberFormatter.format(number));
+        endLine();
+    }
+
+    private void endLine() {
+        if (asciiCompatible) {
+            if (!buffer.hasRemaining())
+                write();
+            buffer.put((byte) '\n');
+        } else {
+            encode(CharBuffer.wrap("\n"));
+        }
+
+        if (lineFlushed)
+            write();
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (buffer.position() > 0)
+            write();
+    }
+
+    /* Whether a write has failed, so output is being dropped. */
+    synchronized boolean failed() {
+        return failed;
+    }
+
+    private void encode(CharBuffer chars) {
+        for (;;) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (!result.isOverflow())
+                break;
+            write();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            write();
+        }
+        encoder.reset();
+    }
+
+    /* Write out everything in the buffer. */
+    private void write() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining() && !failed) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            failed = true;
+        }
+        buffer.clear();
+    }
+}
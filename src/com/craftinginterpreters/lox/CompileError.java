@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * Stops a running program because code it needed only now turned out not to
+ * compile: a lazily parsed function body, or a module first imported inside a
+ * function. It carries the errors to the interpreter that ran into them, which
+ * reports them like any other compile errors.
+ */
+class CompileError extends RuntimeError {
+    final List<LoxError> errors;
+
+    CompileError(Token token, String message, List<LoxError> errors) {
+        super(token, message);
+        this.errors = errors;
+    }
+}
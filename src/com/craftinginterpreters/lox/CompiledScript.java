@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * A script scanned, parsed and resolved by a LoxEngine, along with everything it
+ * imports. It never changes once compiled, so it can be run any number of times,
+ * by any number of threads at once.
+ */
+public final class CompiledScript {
+    final Module module; // null if the script didn't compile
+    private final List<LoxError> errors;
+
+    CompiledScript(Module module, List<LoxError> errors) {
+        this.module = module;
+        this.errors = errors;
+    }
+
+    /* Whether there were compile errors, in which case the script can't run. */
+    public boolean hasErrors() {
+        return module == null;
+    }
+
+    public List<LoxError> errors() {
+        return errors;
+    }
+}
@@ -9,13 +9,15 @@ class Environment {
     /* Create the global environment */
     Environment() {
         enclosing = null;
+        RuntimeStats.count(RuntimeStats.Counter.ENVIRONMENTS);
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        RuntimeStats.count(RuntimeStats.Counter.ENVIRONMENTS);
     }
 
-    private final Map<String, Object> values = new HashMap<>();
+    final Map<String, Object> values = new HashMap<>();
 
     /* Define (or redefine!) a variable */
     void define(String name, Object value) {
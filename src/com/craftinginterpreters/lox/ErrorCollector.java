@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/* Keeps errors instead of printing them. Modules may compile in parallel, so it's synchronized. */
+class ErrorCollector implements ErrorReporter {
+    private final List<LoxError> errors = new ArrayList<>();
+
+    @Override
+    public synchronized void error(int line, String where, String message) {
+        errors.add(new LoxError(LoxError.Kind.COMPILE, line, where, message));
+    }
+
+    @Override
+    public synchronized void runtimeError(RuntimeError error) {
+        errors.add(new LoxError(LoxError.Kind.RUNTIME, error.token.line, "", error.getMessage()));
+    }
+
+    synchronized List<LoxError> errors() {
+        return Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+}
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Where the scanner, parser, resolver and interpreter send the errors they find.
+ * The command line prints them; an embedding collects them.
+ */
+interface ErrorReporter {
+    /* A syntax or resolution error. "where" is e.g. " at 'foo'", or empty. */
+    void error(int line, String where, String message);
+
+    void runtimeError(RuntimeError error);
+
+    /* Report error at given token */
+    default void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            error(token.line, " at end", message);
+        } else {
+            error(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * The outcome of running a compiled script.
+ */
+public final class ExecutionResult {
+    private final List<LoxError> errors;
+
+    ExecutionResult(List<LoxError> errors) {
+        this.errors = errors;
+    }
+
+    public boolean succeeded() {
+        return errors.isEmpty();
+    }
+
+    /* Compile errors (from code compiled while running), or the runtime error that stopped the script. */
+    public List<LoxError> errors() {
+        return errors;
+    }
+
+    /* The exit code the command line would use: 65 for compile errors, 70 for runtime errors. */
+    public int exitCode() {
+        for (LoxError error : errors) {
+            if (error.kind() == LoxError.Kind.COMPILE)
+                return 65;
+        }
+        return errors.isEmpty() ? 0 : 70;
+    }
+}
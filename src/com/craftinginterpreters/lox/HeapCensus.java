@@ -0,0 +1,200 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the Lox values reachable from an interpreter's globals and its current
+ * environment chain, for heapCensus() and --heap-census. It reports, for each
+ * class, its instances and roughly how much memory they keep alive, and the
+ * same for the closures each function declaration made.
+ *
+ * "Keeps alive" is approximate: the walk is breadth first from the roots, and
+ * each value is charged to the nearest instance or closure it was reached
+ * through, or to "<roots>" if there's none. Something shared is charged to whichever owner
+ * was closest to the roots, so nothing is counted twice. The walk is iterative
+ * and only remembers the values it has seen, so it copes with millions of them.
+ *
+ * Sizes are estimates for a 64-bit JVM with compressed pointers.
+ */
+class HeapCensus {
+    private static final int INSTANCE_BYTES = 24;
+    private static final int ENVIRONMENT_BYTES = 24;
+    private static final int FUNCTION_BYTES = 32;
+    private static final int CLASS_BYTES = 24;
+    private static final int ARRAY_BYTES = 24;
+    private static final int MAP_BYTES = 40;
+    private static final int VIEW_BYTES = 24; // A substring, without its source
+    private static final int NUMBER_BYTES = 16;
+    private static final int OTHER_BYTES = 16; // Natives and anything else we can't see into
+
+    /* What one class's instances, or one declaration's closures, keep alive. */
+    static class Group {
+        final String name;
+        long count = 0;
+        long shallowBytes = 0;
+        long retainedBytes = 0;
+
+        Group(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Group roots = new Group("<roots>");
+    private final Map<LoxClass, Group> classes = new IdentityHashMap<>();
+    private final Map<Stmt.Function, Group> functions = new IdentityHashMap<>();
+    private final Map<Object, Boolean> seen = new IdentityHashMap<>();
+    // Values still to visit, and the group each one is charged to
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private final ArrayDeque<Group> pendingOwners = new ArrayDeque<>();
+    private long values = 0;
+    private long totalBytes = 0;
+
+    /* Walk everything reachable from the roots. */
+    HeapCensus(Environment globalEnvironment, Environment current) {
+        // The current chain usually ends in the globals, which then count as seen
+        for (Environment environment = current; environment != null; environment = environment.enclosing) {
+            push(environment, roots);
+        }
+        push(globalEnvironment, roots);
+
+        while (!pending.isEmpty()) {
+            visit(pending.poll(), pendingOwners.poll());
+        }
+    }
+
+    long totalBytes() {
+        return totalBytes;
+    }
+
+    private void push(Object value, Group owner) {
+        // nil, booleans (always shared) and values already seen cost nothing more
+        if (value == null || value instanceof Boolean || seen.put(value, Boolean.TRUE) != null)
+            return;
+        pending.add(value);
+        pendingOwners.add(owner);
+    }
+
+    private void visit(Object value, Group owner) {
+        long bytes;
+        if (value instanceof LoxInstance) {
+            LoxInstance instance = (LoxInstance) value;
+            owner = classes.computeIfAbsent(instance.loxClass, loxClass -> new Group(loxClass.name));
+            owner.count++;
+            bytes = INSTANCE_BYTES + mapBytes(instance.fields);
+            owner.shallowBytes += bytes;
+            push(instance.loxClass, roots);
+            for (Object field : instance.fields.values()) {
+                push(field, owner);
+            }
+        } else if (value instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) value;
+            owner = functions.computeIfAbsent(function.declaration, declaration -> new Group(nameOf(function)));
+            owner.count++;
+            bytes = FUNCTION_BYTES;
+            owner.shallowBytes += bytes;
+            push(function.closure, owner);
+        } else if (value instanceof Environment) {
+            Environment environment = (Environment) value;
+            bytes = ENVIRONMENT_BYTES + mapBytes(environment.values);
+            push(environment.enclosing, owner);
+            for (Object variable : environment.values.values()) {
+                push(variable, owner);
+            }
+        } else if (value instanceof LoxClass) {
+            LoxClass loxClass = (LoxClass) value;
+            bytes = CLASS_BYTES + mapBytes(loxClass.methods);
+            push(loxClass.superclass, owner);
+            for (LoxFunction method : loxClass.methods.values()) {
+                push(method, owner);
+            }
+        } else if (value instanceof LoxArray) {
+            LoxArray array = (LoxArray) value;
+            bytes = ARRAY_BYTES + array.storageBytes();
+            if (array.values() != null) {
+                for (int i = 0; i < array.size(); i++) {
+                    push(array.values()[i], owner);
+                }
+            }
+        } else if (value instanceof LoxMap) {
+            LoxMap map = (LoxMap) value;
+            bytes = MAP_BYTES + map.storageBytes();
+            Group mapOwner = owner;
+            map.forEach((key, mapValue) -> {
+                push(key, mapOwner);
+                push(mapValue, mapOwner);
+            });
+        } else if (value instanceof String) {
+            bytes = stringBytes((String) value);
+        } else if (value instanceof StringView) {
+            // The characters are its source's, which may be shared
+            bytes = VIEW_BYTES;
+            push(((StringView) value).source(), owner);
+        } else if (value instanceof Double) {
+            bytes = NUMBER_BYTES;
+        } else {
+            bytes = OTHER_BYTES;
+        }
+
+        owner.retainedBytes += bytes;
+        values++;
+        totalBytes += bytes;
+    }
+
+    /* A HashMap, its table and its entries, but not its keys and values. */
+    private static long mapBytes(Map<?, ?> map) {
+        int size = map.size();
+        if (size == 0)
+            return 48;
+        int capacity = 16;
+        while (capacity * 3 / 4 < size) {
+            capacity *= 2;
+        }
+        return 48 + align(16 + 4L * capacity) + 32L * size;
+    }
+
+    private static long stringBytes(String string) {
+        // Assumes compact (one byte per character) strings
+        return 24 + align(16 + string.length());
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static String nameOf(LoxFunction function) {
+        Path path = function.module.path;
+        return function.declaration.name.lexeme + " (" + (path == null ? "" : path.getFileName() + ":")
+                + function.declaration.name.line + ")";
+    }
+
+    /* Print the classes and functions keeping the most alive. */
+    void report(PrintStream out, int top) {
+        out.println(String.format("Heap census: %d values, %s reachable", values, bytes(totalBytes)));
+        report(out, "class", new ArrayList<>(classes.values()), top, true);
+        report(out, "function", new ArrayList<>(functions.values()), top, false);
+    }
+
+    private void report(PrintStream out, String kind, List<Group> groups, int top, boolean withRoots) {
+        if (withRoots)
+            groups.add(roots);
+        groups.sort((a, b) -> Long.compare(b.retainedBytes, a.retainedBytes));
+        out.println(String.format("%12s %12s %12s  %s", kind.equals("class") ? "instances" : "closures",
+                "shallow", "retained", kind));
+        for (Group group : groups.subList(0, Math.min(top, groups.size()))) {
+            out.println(String.format("%12s %12s %12s  %s", group == roots ? "" : Long.toString(group.count),
+                    bytes(group.shallowBytes), bytes(group.retainedBytes), group.name));
+        }
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes >= 1 << 20)
+            return String.format("%.1f MB", bytes / (double) (1 << 20));
+        return String.format("%.1f KB", bytes / 1024.0);
+    }
+}
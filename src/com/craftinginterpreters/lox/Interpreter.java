@@ -1,18 +1,39 @@
 package com.craftinginterpreters.lox;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // Variables will stay in memory as long as the interpreer is running.
     final Environment globals = new Environment();
     // The environment changes as we enter/exit local scopes
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // The module whose code is running. It knows the depths of its local variables.
+    private Module module;
+    private final ModuleLoader modules;
+    // Modules that have run (or are running), so each one only runs once
+    private final Set<Module> imported = new HashSet<>();
+    private final ErrorReporter reporter;
+    private final OutputSink out; // Where print writes
+    private final Set<LoxFile> openFiles = new HashSet<>(); // Closed when the script is done
+    private Path workingDirectory = null; // What relative file paths are relative to, or null for the process's
+    private static final int HEAP_CENSUS_TOP = 10; // Classes and functions heapCensus() lists
+    private Profiler profiler = null; // Told about every call, if profiling
+    private int callDepth = 0; // Only kept with --stats
+    private int maxCallDepth = 0;
+
+    Interpreter(ModuleLoader modules, ErrorReporter reporter, OutputSink out) {
+        this.modules = modules;
+        this.reporter = reporter;
+        this.out = out;
 
-    Interpreter() {
         // Define a native function
         globals.define("clock", new LoxCallable() {
             @Override
@@ -30,18 +51,271 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return "<native fn>";
             }
         });
+
+        // Built-in classes
+        globals.define("Array", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new LoxArray();
+            }
+
+            @Override
+            public String toString() {
+                return "Array";
+            }
+        });
+        globals.define("StringBuilder", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new LoxStringBuilder();
+            }
+
+            @Override
+            public String toString() {
+                return "StringBuilder";
+            }
+        });
+        globals.define("Map", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new LoxMap();
+            }
+
+            @Override
+            public String toString() {
+                return "Map";
+            }
+        });
+
+        // MappedArray(path, type) maps a file of numbers into memory
+        globals.define("MappedArray", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxMappedArray.map(arguments.get(0), arguments.get(1), interpreter.workingDirectory);
+            }
+
+            @Override
+            public String toString() {
+                return "MappedArray";
+            }
+        });
+
+        // Print what the reachable values keep alive, and return the total bytes
+        globals.define("heapCensus", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                HeapCensus census = interpreter.heapCensus();
+                ByteArrayOutputStream report = new ByteArrayOutputStream();
+                census.report(new PrintStream(report, true), HEAP_CENSUS_TOP);
+                interpreter.out.print(report.toString());
+                return (double) census.totalBytes();
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        // Files
+        globals.define("readFile", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxFile.readAll(arguments.get(0), interpreter.workingDirectory);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+        globals.define("openFile", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxFile.open(arguments.get(0), arguments.get(1), interpreter.workingDirectory,
+                        interpreter.openFiles);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        // JSON
+        globals.define("parseJson", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return JsonReader.parse(arguments.get(0));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+        globals.define("jsonReader", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return JsonReader.of(arguments.get(0));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+        globals.define("toJson", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return JsonWriter.toJson(arguments.get(0));
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+        globals.define("printJson", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                // Straight to the output, without making one big string first
+                JsonWriter.write(arguments.get(0), interpreter.out, true);
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+
+        // One of the --stats counts, by name, or nil without --stats
+        globals.define("stats", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String name = StringView.asString(arguments.get(0));
+                if (!RuntimeStats.enabled || name == null)
+                    return null;
+                Long count = RuntimeStats.get(name);
+                return count == null ? null : (Object) (double) count;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
     }
 
-    void interpret(List<Stmt> statements) {
+    void interpret(Module module) {
+        LoxEvents.check();
+        if (profiler != null)
+            profiler.start();
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
+            imported.add(module);
+            executeBlock(module.statements, globals, module);
+        } catch (CompileError error) {
+            for (LoxError e : error.errors) {
+                reporter.error(e.line(), e.where(), e.message());
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            LoxEvents.runtimeError(error, module);
+            reporter.runtimeError(error);
+        } finally {
+            if (profiler != null)
+                profiler.stop();
+        }
+    }
+
+    /* Define Java natives as globals, alongside (or instead of) the built-in ones. */
+    void define(LoxNatives natives) {
+        for (JavaNative function : natives.natives()) {
+            globals.define(function.name, function);
+        }
+    }
+
+    /* Resolve the relative paths scripts give file natives against another directory, e.g. a client's. */
+    void workingDirectory(Path directory) {
+        this.workingDirectory = directory;
+    }
+
+    /* Close the files the script left open, writing out what they still buffer. */
+    void closeFiles() {
+        for (LoxFile file : new ArrayList<>(openFiles)) {
+            file.close();
         }
     }
 
+    void profile(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /* Count what's reachable from the globals and the current scope. */
+    HeapCensus heapCensus() {
+        return new HeapCensus(globals, environment);
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -80,7 +354,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
+        int distance = module.locals.get(expr);
         // Find super in the correct environment
         LoxClass superclass = (LoxClass) environment.getAt(
                 distance, "super");
@@ -122,7 +396,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 // We must cast bcause we don't statically know the type. This is the core of
                 // what makes this language dynamically typed.
                 checkNumberOperand(expr.operator, right);
-                return -(double) right;
+                return number(-(double) right);
             default:
                 break;
         }
@@ -169,16 +443,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    /*
-     * Resolve a variable
-     * - Every time the resolver visits a variable, it tells the interpreter how
-     * many scopes there are between the current scope and the scope where the var
-     * is defined. At runtime, the number of scopes = the number pf environments.
-     */
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         executeBlock(stmt.statements, new Environment(environment));
@@ -204,6 +468,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    /* Execute code from another module, e.g. a function body. */
+    void executeBlock(List<Stmt> statements, Environment environment, Module module) {
+        Module previous = this.module;
+        try {
+            this.module = module;
+            executeBlock(statements, environment);
+        } finally {
+            this.module = previous;
+        }
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
@@ -221,9 +496,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             environment.define("super", superclass);
         }
 
+        if (profiler != null)
+            profiler.methodsOf(stmt);
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(method, environment, module,
+                    method.name.lexeme.equals("init"));
+            RuntimeStats.count(RuntimeStats.Counter.FUNCTIONS);
             methods.put(method.name.lexeme, function);
         }
 
@@ -262,7 +541,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return (double) left <= (double) right;
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                return number((double) left - (double) right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
@@ -271,7 +550,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 // '+' is overloaded; it can be used for strings or doubles, so we dynamically
                 // check the type
                 if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
+                    return number((double) left + (double) right);
                 }
 
                 if (left instanceof String && right instanceof String) {
@@ -279,11 +558,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
 
                 // If either operand is a string, convert the other to a string
-                if (left instanceof String && right instanceof Double) {
-                    return (String) left + doubleAsString((Double) right);
+                if (StringView.isString(left) && right instanceof Double) {
+                    CharSequence string = (CharSequence) left;
+                    StringBuilder builder = new StringBuilder(string.length() + 24).append(string);
+                    NumberFormatter.append(builder, (Double) right);
+                    return builder.toString();
                 }
-                if (left instanceof Double && right instanceof String) {
-                    return doubleAsString((Double) left) + (String) right;
+                if (left instanceof Double && StringView.isString(right)) {
+                    CharSequence string = (CharSequence) right;
+                    StringBuilder builder = new StringBuilder(string.length() + 24);
+                    NumberFormatter.append(builder, (Double) left);
+                    return builder.append(string).toString();
+                }
+                // A substring is copied straight into the result, without materialising it first
+                if (StringView.isString(left) && StringView.isString(right)) {
+                    CharSequence a = (CharSequence) left;
+                    CharSequence b = (CharSequence) right;
+                    return new StringBuilder(a.length() + b.length()).append(a).append(b).toString();
                 }
 
                 // We already have type checks, so we throw if none of the cases match
@@ -297,10 +588,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     throw new RuntimeError(expr.operator,
                             "Division by zero is undefined.");
 
-                return (double) left / (double) right;
+                return number((double) left / (double) right);
             case STAR:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                return number((double) left * (double) right);
             default:
                 break;
 
@@ -314,7 +605,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitCallExpr(Expr.Call expr) {
         // Typically, the callee is just an identifier that looks up the function by
         // name, e.g. "evaluate", but it could be any expression.
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        if (expr.callee instanceof Expr.Get) {
+            // A method call. Native methods are called directly, without binding them first.
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            if (object instanceof NativeObject)
+                return callNative((NativeObject) object, get.name, expr);
+            if (object instanceof String)
+                return callString((String) object, get.name, expr);
+            callee = getProperty(object, get.name);
+        } else {
+            callee = evaluate(expr.callee);
+        }
 
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
@@ -331,18 +634,112 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        try {
+            if (profiler == null && !LoxEvents.recording && !RuntimeStats.enabled)
+                return function.call(this, arguments);
+            return callObserved(function, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    /* A call that's being profiled, recorded or counted. */
+    private Object callObserved(LoxCallable function, List<Object> arguments) {
+        if (RuntimeStats.enabled)
+            countCall(function);
+        if (profiler != null)
+            profiler.enter(function);
+        try {
+            if (LoxEvents.recording)
+                return LoxEvents.call(this, function, arguments);
+            return function.call(this, arguments);
+        } finally {
+            if (profiler != null)
+                profiler.exit();
+            if (RuntimeStats.enabled)
+                callDepth--;
+        }
+    }
+
+    private void countCall(LoxCallable function) {
+        if (function instanceof LoxFunction) {
+            RuntimeStats.count(RuntimeStats.Counter.FUNCTION_CALLS);
+        } else if (function instanceof LoxClass) {
+            RuntimeStats.count(RuntimeStats.Counter.CLASS_CALLS);
+        } else {
+            RuntimeStats.count(RuntimeStats.Counter.NATIVE_CALLS);
+        }
+        if (++callDepth > maxCallDepth) {
+            maxCallDepth = callDepth;
+            RuntimeStats.callDepth(callDepth);
+        }
+    }
+
+    /* Box the result of arithmetic, counting it for --stats. */
+    private static Object number(double value) {
+        RuntimeStats.count(RuntimeStats.Counter.NUMBERS);
+        return value;
+    }
+
+    private Object callNative(NativeObject object, Token method, Expr.Call expr) {
+        int arity = object.arity(method.lexeme);
+        if (arity == -1)
+            throw undefinedProperty(object, method);
+
+        List<Object> arguments = nativeArguments(arity, expr);
+        RuntimeStats.count(RuntimeStats.Counter.NATIVE_CALLS);
+        return object.call(method, arguments);
+    }
+
+    /* A method of a plain string, called without wrapping the string in a view. */
+    private Object callString(String string, Token method, Expr.Call expr) {
+        int arity = StringView.arityOf(method.lexeme);
+        if (arity == -1)
+            throw new RuntimeError(method, "Only instances have properties.");
+
+        List<Object> arguments = nativeArguments(arity, expr);
+        RuntimeStats.count(RuntimeStats.Counter.NATIVE_CALLS);
+        return StringView.call(string, method, arguments);
+    }
+
+    private List<Object> nativeArguments(int arity, Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+        if (arguments.size() != arity) {
+            throw new RuntimeError(expr.paren,
+                    "Expected " + arity + " arguments but got " + arguments.size() + ".");
+        }
+        return arguments;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object), expr.name);
+    }
+
+    private Object getProperty(Object object, Token name) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(name);
+        }
+        if (object instanceof String)
+            object = new StringView((String) object);
+        if (object instanceof NativeObject) {
+            if (((NativeObject) object).arity(name.lexeme) == -1)
+                throw undefinedProperty((NativeObject) object, name);
+            return new NativeObject.BoundNative((NativeObject) object, name);
         }
 
         // Nothing other than a class has properties.
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    private static RuntimeError undefinedProperty(NativeObject object, Token name) {
+        // Strings have methods, but aren't objects with properties of their own
+        if (object instanceof StringView)
+            return new RuntimeError(name, "Only instances have properties.");
+        return new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
     /*
@@ -355,31 +752,38 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return true;
         if (a == null)
             return false;
+        // A String doesn't know it can equal a view of one
+        if (b instanceof StringView)
+            return b.equals(a);
 
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null)
             return "nil";
 
         if (object instanceof Double) {
-            return doubleAsString((Double) object);
+            // Whole numbers print without the trailing '.0'
+            return NumberFormatter.format((Double) object);
         }
 
         return object.toString();
     }
 
-    /*
-     * Converts a double to a string and removes trailing '.0' if it's a whole
-     * number (an int)
-     */
-    private String doubleAsString(Double number) {
-        String text = number.toString();
-        if (text.endsWith(".0")) {
-            text = text.substring(0, text.length() - 2);
+    /* Append a value as print would, inside the arrays and maps in enclosing. */
+    static void stringify(StringBuilder text, Object object, Set<Object> enclosing) {
+        if (object instanceof Double) {
+            NumberFormatter.append(text, (Double) object);
+        } else if (object instanceof StringView) {
+            ((StringView) object).appendTo(text);
+        } else if (object instanceof LoxArray) {
+            ((LoxArray) object).appendTo(text, enclosing);
+        } else if (object instanceof LoxMap) {
+            ((LoxMap) object).appendTo(text, enclosing);
+        } else {
+            text.append(stringify(object));
         }
-        return text;
     }
 
     @Override
@@ -395,7 +799,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         // Here, we pass the environment that is active when the function is *declared*,
         // not when its called (closure). It represents the lexical scope surrounding
         // the function.
-        LoxFunction function = new LoxFunction(stmt, environment, false);
+        LoxFunction function = new LoxFunction(stmt, environment, module, false);
+        RuntimeStats.count(RuntimeStats.Counter.FUNCTIONS);
         environment.define(stmt.name.lexeme, function);
         return null;
     }
@@ -412,10 +817,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        ErrorCollector errors = new ErrorCollector();
+        Module module = modules.load(this.module, stmt, errors);
+        if (module == null) {
+            throw new CompileError(stmt.keyword,
+                    "Could not import '" + stmt.path.literal + "'.", errors.errors());
+        }
+
+        // A module runs once, in the global scope. It's marked before it runs, so a
+        // module importing one that's still running (a cycle) doesn't run it again.
+        if (imported.add(module)) {
+            executeBlock(module.statements, globals, module);
+        }
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        if (value instanceof Double) {
+            out.println((double) value);
+        } else if (value instanceof StringView) {
+            out.println((StringView) value);
+        } else {
+            out.println(stringify(value));
+        }
         return null;
     }
 
@@ -453,7 +881,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
+        Integer distance = module.locals.get(expr);
         if (distance != null) {
             environment.assignAt(distance, expr.name, value);
         } else {
@@ -472,11 +900,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private Object lookUpVariable(Token name, Expr expr) {
         // Look up the resolved distance in the map
         // We only resolve local variables
-        Integer distance = locals.get(expr);
+        Integer distance = module.locals.get(expr);
         if (distance != null) {
             // If we do get a distance, we get the correct variable
+            RuntimeStats.count(RuntimeStats.Counter.LOCAL_LOOKUPS);
             return environment.getAt(distance, name.lexeme);
         } else {
+            RuntimeStats.count(RuntimeStats.Counter.GLOBAL_LOOKUPS);
             return globals.get(name);
         }
     }
@@ -0,0 +1,195 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * A Java method called from Lox. Its handle is adapted once, up front, into
+ * one that takes the Lox arguments as an Object[] and returns a Lox value:
+ * each argument goes through a filter that checks its type and unboxes it
+ * for a primitive parameter, and the result through one that turns Java
+ * numbers into Lox's doubles. A call is then a single invokeExact().
+ */
+final class JavaNative implements LoxCallable {
+    private static final MethodHandle TO_DOUBLE;
+    private static final MethodHandle TO_INT;
+    private static final MethodHandle TO_LONG;
+    private static final MethodHandle TO_BOOLEAN;
+    private static final MethodHandle TO_STRING;
+    private static final MethodHandle TO_CHARS;
+    private static final MethodHandle TO_INSTANCE;
+    private static final MethodHandle FROM_CHAR;
+    private static final MethodHandle FROM_OBJECT;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            TO_DOUBLE = lookup.findStatic(JavaNative.class, "toDouble", MethodType.methodType(double.class, Object.class));
+            TO_INT = lookup.findStatic(JavaNative.class, "toInt", MethodType.methodType(int.class, Object.class));
+            TO_LONG = lookup.findStatic(JavaNative.class, "toLong", MethodType.methodType(long.class, Object.class));
+            TO_BOOLEAN = lookup.findStatic(JavaNative.class, "toBoolean",
+                    MethodType.methodType(boolean.class, Object.class));
+            TO_STRING = lookup.findStatic(JavaNative.class, "toString",
+                    MethodType.methodType(String.class, Object.class));
+            TO_CHARS = lookup.findStatic(JavaNative.class, "toChars",
+                    MethodType.methodType(CharSequence.class, Object.class));
+            TO_INSTANCE = lookup.findStatic(JavaNative.class, "toInstance",
+                    MethodType.methodType(Object.class, Class.class, Object.class));
+            FROM_CHAR = lookup.findStatic(String.class, "valueOf", MethodType.methodType(String.class, char.class));
+            FROM_OBJECT = lookup.findStatic(JavaNative.class, "fromObject",
+                    MethodType.methodType(Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /* An argument of the wrong type. Says what it should have been. */
+    private static class ArgumentError extends RuntimeException {
+        ArgumentError(String expected) {
+            // Thrown from a filter, where the stack isn't worth filling in
+            super(expected, null, false, false);
+        }
+    }
+
+    final String name;
+    private final int arity;
+    private final MethodHandle invoker; // (Object[])Object
+
+    JavaNative(String name, MethodHandle handle) {
+        this.name = name;
+        MethodType type = handle.type();
+        this.arity = type.parameterCount();
+
+        MethodHandle adapted = handle;
+        for (int i = 0; i < arity; i++) {
+            adapted = MethodHandles.filterArguments(adapted, i, argumentFilter(type.parameterType(i)));
+        }
+        adapted = adaptResult(adapted);
+        this.invoker = adapted.asSpreader(Object[].class, arity)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    /* A filter from a Lox value to a parameter type. */
+    private static MethodHandle argumentFilter(Class<?> type) {
+        if (type == double.class)
+            return TO_DOUBLE;
+        if (type == float.class)
+            return MethodHandles.explicitCastArguments(TO_DOUBLE, MethodType.methodType(float.class, Object.class));
+        if (type == int.class)
+            return TO_INT;
+        if (type == long.class)
+            return TO_LONG;
+        if (type == boolean.class)
+            return TO_BOOLEAN;
+        if (type == String.class)
+            return TO_STRING;
+        if (type == CharSequence.class)
+            return TO_CHARS;
+        if (type == Object.class)
+            return MethodHandles.identity(Object.class);
+        if (type.isPrimitive())
+            throw new IllegalArgumentException("Lox can't pass a " + type + ".");
+        return TO_INSTANCE.bindTo(type).asType(MethodType.methodType(type, Object.class));
+    }
+
+    /* Make a handle return a Lox value, as an Object. */
+    private static MethodHandle adaptResult(MethodHandle handle) {
+        Class<?> type = handle.type().returnType();
+        if (type == char.class)
+            return MethodHandles.filterReturnValue(handle, FROM_CHAR);
+        if (type.isPrimitive() && type != void.class && type != boolean.class) {
+            // Widen any number to a double, which then boxes as a Double
+            handle = handle.asType(handle.type().changeReturnType(double.class));
+        } else if (type == Object.class || Number.class.isAssignableFrom(type) || type == Character.class) {
+            // Might be a boxed number that isn't a Double
+            return MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)),
+                    FROM_OBJECT);
+        }
+        // void returns nil
+        return handle.asType(handle.type().changeReturnType(Object.class));
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        try {
+            return (Object) invoker.invokeExact(arguments.toArray());
+        } catch (ArgumentError error) {
+            throw new NativeError("Arguments to '" + name + "' must be " + error.getMessage() + ".");
+        } catch (NativeError | RuntimeError | Error error) {
+            throw error;
+        } catch (Throwable exception) {
+            throw new NativeError("'" + name + "' threw " + exception + ".");
+        }
+    }
+
+    private static double toDouble(Object value) {
+        if (!(value instanceof Double))
+            throw new ArgumentError("numbers");
+        return (Double) value;
+    }
+
+    private static int toInt(Object value) {
+        if (!(value instanceof Double))
+            throw new ArgumentError("numbers");
+        double number = (Double) value;
+        if (number != (int) number)
+            throw new ArgumentError("whole numbers that fit in an int");
+        return (int) number;
+    }
+
+    private static long toLong(Object value) {
+        if (!(value instanceof Double))
+            throw new ArgumentError("numbers");
+        double number = (Double) value;
+        if (number != Math.floor(number) || number < -0x1p63 || number >= 0x1p63)
+            throw new ArgumentError("whole numbers that fit in a long");
+        return (long) number;
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (!(value instanceof Boolean))
+            throw new ArgumentError("booleans");
+        return (Boolean) value;
+    }
+
+    private static String toString(Object value) {
+        String string = StringView.asString(value);
+        if (string == null)
+            throw new ArgumentError("strings");
+        return string;
+    }
+
+    /* A string or a view of one, without materialising it. */
+    private static CharSequence toChars(Object value) {
+        if (!StringView.isString(value))
+            throw new ArgumentError("strings");
+        return (CharSequence) value;
+    }
+
+    private static Object toInstance(Class<?> type, Object value) {
+        if (value != null && !type.isInstance(value))
+            throw new ArgumentError("of type " + type.getSimpleName());
+        return value;
+    }
+
+    /* Lox numbers are all doubles, and it has no characters. */
+    private static Object fromObject(Object value) {
+        if (value instanceof Number && !(value instanceof Double))
+            return ((Number) value).doubleValue();
+        if (value instanceof Character)
+            return value.toString();
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,508 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pull parser for JSON, made with jsonReader(source), where the source is a
+ * string or a file opened for reading. It reads the file through the file's
+ * own buffer, so memory doesn't grow with the size of the document, only with
+ * how deeply it's nested.
+ *
+ * reader.next() returns the next event: "startObject", "endObject",
+ * "startArray", "endArray", "key" or "value", or nil at the end. After a key
+ * or value, reader.value() is the key or value itself. reader.hasNext() is
+ * whether the current object or array has more in it, and reader.read()
+ * reads the whole next value, e.g. each element of a huge array in turn.
+ *
+ * Values become Lox values: objects Maps, arrays Arrays, numbers doubles and
+ * null nil. parseJson(text) reads a whole document at once.
+ */
+class JsonReader implements NativeObject {
+    private static final int MAX_DEPTH = 1000;
+    private static final int KEY_CACHE_SIZE = 256; // A power of two
+
+    // What comes next, from peek()
+    private static final int NONE = 0; // Not peeked yet
+    private static final int BEGIN_OBJECT = 1;
+    private static final int END_OBJECT = 2;
+    private static final int BEGIN_ARRAY = 3;
+    private static final int END_ARRAY = 4;
+    private static final int KEY = 5; // Its opening quote has been read
+    private static final int STRING = 6; // Likewise
+    private static final int NUMBER = 7; // Nothing read yet
+    private static final int TRUE = 8; // Its first letter has been read
+    private static final int FALSE = 9;
+    private static final int NULL = 10;
+    private static final int END_DOCUMENT = 11;
+
+    // Where the reader is in each open object or array, and the document
+    private static final byte EMPTY_DOCUMENT = 0;
+    private static final byte NONEMPTY_DOCUMENT = 1;
+    private static final byte EMPTY_ARRAY = 2;
+    private static final byte NONEMPTY_ARRAY = 3;
+    private static final byte EMPTY_OBJECT = 4;
+    private static final byte DANGLING_KEY = 5; // A key that's waiting for its value
+    private static final byte NONEMPTY_OBJECT = 6;
+
+    private final CharBuffer chars; // In read mode
+    private final LoxFile file; // That refills chars, or null for a string
+    private byte[] stack = new byte[16];
+    private int depth = 1;
+    private int peeked = NONE;
+    private int line = 1;
+    private Object value = null; // The last key or value
+    private final StringBuilder buffer = new StringBuilder(); // For strings with escapes, and numbers
+    // Keys seen recently, by hash. Records repeat the same keys, which can share one string
+    private final String[] keys = new String[KEY_CACHE_SIZE];
+
+    private JsonReader(CharBuffer chars, LoxFile file) {
+        this.chars = chars;
+        this.file = file;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    static JsonReader of(Object source) {
+        if (StringView.isString(source))
+            return new JsonReader(CharBuffer.wrap(source.toString().toCharArray()), null);
+        if (source instanceof LoxFile && ((LoxFile) source).chars() != null)
+            return new JsonReader(((LoxFile) source).chars(), (LoxFile) source);
+        throw new NativeError("JSON source must be a string or a file open for reading.");
+    }
+
+    /* Parse a whole document. */
+    static Object parse(Object text) {
+        if (!StringView.isString(text))
+            throw new NativeError("JSON must be a string.");
+        JsonReader reader = of(text);
+        Object value = reader.read();
+        if (reader.peek() != END_DOCUMENT)
+            throw reader.error("Expected the end of the document");
+        return value;
+    }
+
+    /* The next event, or null at the end. */
+    private String next() {
+        int next = peek();
+        peeked = NONE;
+        switch (next) {
+            case BEGIN_OBJECT:
+                push(EMPTY_OBJECT);
+                return "startObject";
+            case END_OBJECT:
+                depth--;
+                return "endObject";
+            case BEGIN_ARRAY:
+                push(EMPTY_ARRAY);
+                return "startArray";
+            case END_ARRAY:
+                depth--;
+                return "endArray";
+            case KEY:
+                value = key();
+                return "key";
+            case END_DOCUMENT:
+                peeked = END_DOCUMENT;
+                return null;
+            default:
+                value = scalar(next);
+                return "value";
+        }
+    }
+
+    private boolean hasNext() {
+        int next = peek();
+        return next != END_OBJECT && next != END_ARRAY && next != END_DOCUMENT;
+    }
+
+    /* Read the whole next value. */
+    private Object read() {
+        int next = peek();
+        peeked = NONE;
+        switch (next) {
+            case BEGIN_OBJECT: {
+                push(EMPTY_OBJECT);
+                LoxMap map = new LoxMap();
+                while (peek() == KEY) {
+                    peeked = NONE;
+                    String key = key();
+                    map.set(key, read());
+                }
+                expect(END_OBJECT, "Expected a key or '}'");
+                return map;
+            }
+            case BEGIN_ARRAY: {
+                push(EMPTY_ARRAY);
+                LoxArray array = new LoxArray();
+                while (peek() != END_ARRAY) {
+                    array.push(read());
+                }
+                peeked = NONE;
+                depth--;
+                return array;
+            }
+            case KEY:
+            case END_OBJECT:
+            case END_ARRAY:
+            case END_DOCUMENT:
+                peeked = next;
+                throw error("Expected a value");
+            default:
+                return scalar(next);
+        }
+    }
+
+    private void expect(int token, String message) {
+        if (peek() != token)
+            throw error(message);
+        peeked = NONE;
+        depth--;
+    }
+
+    private Object scalar(int token) {
+        switch (token) {
+            case STRING:
+                return string();
+            case NUMBER:
+                return number();
+            case TRUE:
+                literal("rue");
+                return true;
+            case FALSE:
+                literal("alse");
+                return false;
+            case NULL:
+                literal("ull");
+                return null;
+            default:
+                throw new IllegalStateException(Integer.toString(token));
+        }
+    }
+
+    private void push(byte state) {
+        if (depth == MAX_DEPTH)
+            throw error("JSON is nested too deeply");
+        if (depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = state;
+    }
+
+    /* Work out what comes next, reading past any punctuation before it. */
+    private int peek() {
+        if (peeked != NONE)
+            return peeked;
+
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonSpace();
+                if (c == ']')
+                    return peeked = END_ARRAY;
+                unread(c);
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonSpace();
+                if (c == ']')
+                    return peeked = END_ARRAY;
+                if (c != ',')
+                    throw error("Expected ',' or ']'");
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonSpace();
+                if (c == '}')
+                    return peeked = END_OBJECT;
+                if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',')
+                        throw error("Expected ',' or '}'");
+                    c = nextNonSpace();
+                }
+                if (c != '"')
+                    throw error("Expected a key");
+                stack[depth - 1] = DANGLING_KEY;
+                return peeked = KEY;
+            case DANGLING_KEY:
+                if (nextNonSpace() != ':')
+                    throw error("Expected ':'");
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default: // NONEMPTY_DOCUMENT
+                if (nextNonSpace() != -1)
+                    throw error("Expected the end of the document");
+                return peeked = END_DOCUMENT;
+        }
+
+        // A value
+        c = nextNonSpace();
+        switch (c) {
+            case '{':
+                return peeked = BEGIN_OBJECT;
+            case '[':
+                return peeked = BEGIN_ARRAY;
+            case '"':
+                return peeked = STRING;
+            case 't':
+                return peeked = TRUE;
+            case 'f':
+                return peeked = FALSE;
+            case 'n':
+                return peeked = NULL;
+            case -1:
+                throw error("Unexpected end of JSON");
+            default:
+                if (c != '-' && (c < '0' || c > '9'))
+                    throw error("Expected a value");
+                unread();
+                return peeked = NUMBER;
+        }
+    }
+
+    /* The rest of a key, which is a string that's likely been seen before. */
+    private String key() {
+        if (!chars.hasArray())
+            return string();
+        char[] array = chars.array();
+        int offset = chars.arrayOffset();
+        int start = chars.position();
+        int end = chars.limit();
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            char c = array[offset + i];
+            if (c == '"') {
+                String key = keys[(hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1)];
+                if (key != null && key.length() == i - start && key.hashCode() == hash) {
+                    // Likely a match. Make sure
+                    int j = 0;
+                    while (j < key.length() && key.charAt(j) == array[offset + start + j]) {
+                        j++;
+                    }
+                    if (j == key.length()) {
+                        chars.position(i + 1);
+                        return key;
+                    }
+                }
+                key = new String(array, offset + start, i - start);
+                keys[(hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1)] = key;
+                chars.position(i + 1);
+                return key;
+            }
+            if (c == '\\' || c < 0x20)
+                break;
+            hash = 31 * hash + c; // As String.hashCode() does
+        }
+        return string();
+    }
+
+    /* The rest of a string, after its opening quote. */
+    private String string() {
+        // Most strings have no escapes and are all in the buffer, so they can be cut straight out of it
+        if (chars.hasArray()) {
+            char[] array = chars.array();
+            int offset = chars.arrayOffset();
+            int start = chars.position();
+            int end = chars.limit();
+            for (int i = start; i < end; i++) {
+                char c = array[offset + i];
+                if (c == '"') {
+                    chars.position(i + 1);
+                    return new String(array, offset + start, i - start);
+                }
+                if (c == '\\' || c < 0x20)
+                    break;
+            }
+        }
+
+        buffer.setLength(0);
+        for (;;) {
+            int c = nextChar();
+            if (c == '"')
+                return buffer.toString();
+            if (c == -1)
+                throw error("Unterminated string");
+            if (c < 0x20)
+                throw error("Control characters must be escaped in strings");
+            if (c != '\\') {
+                buffer.append((char) c);
+                continue;
+            }
+            c = nextChar();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    buffer.append((char) c);
+                    break;
+                case 'b':
+                    buffer.append('\b');
+                    break;
+                case 'f':
+                    buffer.append('\f');
+                    break;
+                case 'n':
+                    buffer.append('\n');
+                    break;
+                case 'r':
+                    buffer.append('\r');
+                    break;
+                case 't':
+                    buffer.append('\t');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(nextChar(), 16);
+                        if (digit == -1)
+                            throw error("Invalid \\u escape");
+                        code = code * 16 + digit;
+                    }
+                    buffer.append((char) code);
+                    break;
+                default:
+                    throw error("Invalid escape");
+            }
+        }
+    }
+
+    /* A number, checked against JSON's grammar: -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)? */
+    private double number() {
+        buffer.setLength(0);
+        int c = nextChar();
+        if (c == '-') {
+            buffer.append('-');
+            c = nextChar();
+        }
+        if (c == '0') {
+            buffer.append('0');
+            c = nextChar();
+        } else if (c >= '1' && c <= '9') {
+            while (c >= '0' && c <= '9') {
+                buffer.append((char) c);
+                c = nextChar();
+            }
+        } else {
+            throw error("Invalid number");
+        }
+        if (c == '.') {
+            buffer.append('.');
+            c = digits();
+        }
+        if (c == 'e' || c == 'E') {
+            buffer.append('e');
+            c = nextChar();
+            if (c == '+' || c == '-') {
+                buffer.append((char) c);
+            } else {
+                unread(c);
+            }
+            c = digits();
+        }
+        unread(c);
+        // JSON's numbers are a subset of what the parser takes
+        return NumberParser.parse(buffer);
+    }
+
+    /* One or more digits. Returns the character after them. */
+    private int digits() {
+        int c = nextChar();
+        if (c < '0' || c > '9')
+            throw error("Invalid number");
+        while (c >= '0' && c <= '9') {
+            buffer.append((char) c);
+            c = nextChar();
+        }
+        return c;
+    }
+
+    private void literal(String rest) {
+        for (int i = 0; i < rest.length(); i++) {
+            if (nextChar() != rest.charAt(i))
+                throw error("Invalid literal");
+        }
+    }
+
+    private int nextNonSpace() {
+        for (;;) {
+            int c = nextChar();
+            if (c == '\n') {
+                line++;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    private int nextChar() {
+        if (!chars.hasRemaining() && !fill())
+            return -1;
+        return chars.get();
+    }
+
+    /* Step back over the character just read, which is still in the buffer. */
+    private void unread() {
+        chars.position(chars.position() - 1);
+    }
+
+    private void unread(int c) {
+        if (c != -1)
+            unread();
+    }
+
+    private boolean fill() {
+        if (file == null)
+            return false;
+        try {
+            return file.fill();
+        } catch (IOException e) {
+            throw new NativeError("Could not read '" + file.path + "'.");
+        }
+    }
+
+    private NativeError error(String message) {
+        return new NativeError("Invalid JSON at line " + line + ": " + message + ".");
+    }
+
+    @Override
+    public int arity(String method) {
+        switch (method) {
+            case "next":
+            case "value":
+            case "hasNext":
+            case "read":
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Object call(Token method, List<Object> arguments) {
+        try {
+            switch (method.lexeme) {
+                case "next":
+                    return next();
+                case "value":
+                    return value;
+                case "hasNext":
+                    return hasNext();
+                case "read":
+                    return read();
+                default:
+                    // arity() said there's no such method
+                    throw new IllegalArgumentException(method.lexeme);
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(method, error.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<json reader>";
+    }
+}
@@ -0,0 +1,132 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+
+/**
+ * Writes Lox values as JSON: Maps (with string keys) and instances (their
+ * fields) as objects, Arrays as arrays, and nil as null.
+ *
+ * The text goes to an output sink in chunks as it's made, so writing a large
+ * value doesn't build all of its JSON in memory first.
+ */
+class JsonWriter {
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_DEPTH = 1000; // Deeper than this is probably a cycle
+
+    private final OutputSink sink; // Or null to keep all of the text
+    private final StringBuilder text = new StringBuilder();
+
+    private JsonWriter(OutputSink sink) {
+        this.sink = sink;
+    }
+
+    static String toJson(Object value) {
+        JsonWriter writer = new JsonWriter(null);
+        writer.value(value, 0);
+        return writer.text.toString();
+    }
+
+    /* Write a value to a sink, on a line of its own if line is set. */
+    static void write(Object value, OutputSink sink, boolean line) {
+        JsonWriter writer = new JsonWriter(sink);
+        writer.value(value, 0);
+        if (line) {
+            sink.println(writer.text);
+        } else {
+            sink.print(writer.text);
+        }
+    }
+
+    private void value(Object value, int depth) {
+        if (depth > MAX_DEPTH)
+            throw new NativeError("Value is nested too deeply to write as JSON.");
+
+        if (value == null) {
+            text.append("null");
+        } else if (value instanceof Boolean) {
+            text.append((boolean) (Boolean) value);
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            if (Double.isNaN(number) || Double.isInfinite(number))
+                throw new NativeError("Can't write NaN or infinity as JSON.");
+            NumberFormatter.append(text, number);
+        } else if (StringView.isString(value)) {
+            string(value.toString());
+        } else if (value instanceof LoxArray) {
+            LoxArray array = (LoxArray) value;
+            text.append('[');
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0)
+                    text.append(',');
+                value(array.get(i), depth + 1);
+            }
+            text.append(']');
+        } else if (value instanceof LoxMap) {
+            text.append('{');
+            boolean[] first = { true };
+            ((LoxMap) value).forEach((key, field) -> {
+                if (!(key instanceof String))
+                    throw new NativeError("Only maps with string keys can be written as JSON.");
+                field((String) key, field, depth, first[0]);
+                first[0] = false;
+            });
+            text.append('}');
+        } else if (value instanceof LoxInstance) {
+            text.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> field : ((LoxInstance) value).fields.entrySet()) {
+                field(field.getKey(), field.getValue(), depth, first);
+                first = false;
+            }
+            text.append('}');
+        } else {
+            throw new NativeError("Can't write " + value + " as JSON.");
+        }
+
+        if (sink != null && text.length() >= CHUNK_SIZE) {
+            sink.print(text);
+            text.setLength(0);
+        }
+    }
+
+    private void field(String key, Object value, int depth, boolean first) {
+        if (!first)
+            text.append(',');
+        string(key);
+        text.append(':');
+        value(value, depth + 1);
+    }
+
+    private void string(String string) {
+        text.append('"');
+        int length = string.length();
+        int start = 0; // The first character not yet appended
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\')
+                continue;
+            text.append(string, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    text.append("\\\"");
+                    break;
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                default:
+                    text.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            }
+        }
+        text.append(string, start, length).append('"');
+    }
+}
@@ -3,35 +3,174 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
     static boolean verbose = false; // Whether to print debugging info
+    private static Profiler profiler = null; // Set by --profile
+    private static int profileTop = 20; // Functions to list in the profile
+    private static int heapCensusTop = 0; // Classes and functions to list in the census at exit, if any
+
+    // Where print writes. Flushed before anything else is written, so output stays in order.
+    private static final ChannelOutputSink out = ChannelOutputSink.stdout();
+
+    /* Prints errors, and remembers what kind there were for the exit code. */
+    private static final ErrorReporter reporter = new ErrorReporter() {
+        @Override
+        public void error(int line, String where, String message) {
+            out.flush();
+            System.err.println("[line " + line + "] Error" + where + ": " + message);
+            hadError = true;
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+            out.flush();
+            System.err.println("[line " + error.token.line + "] " + error.getMessage());
+            hadRuntimeError = true;
+        }
+    };
+
+    // Recreated by main() once the options are known
+    private static ModuleLoader modules = new ModuleLoader(false, false, null, null);
+    private static Interpreter interpreter = new Interpreter(modules, reporter, out);
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 2) {
-            System.out.println("Usage: jlox [-v]? [script]");
-            System.exit(64);
-        } else if (args.length == 2 && args[0].contains("-v")) {
-            verbose = true;
-            runFile(args[1]);
-        } else if (args.length == 1 && !args[0].contains("-v")) {
-            runFile(args[0]);
+        boolean fused = false; // Whether to resolve variables while parsing
+        boolean lazy = false; // Whether to defer parsing function bodies until called
+        Path cacheDirectory = null; // Where compiled scripts are kept, if anywhere
+        int serverPort = -1; // Run as a server on this port
+        int clientPort = -1; // Send the script to the server on this port
+        boolean serverStats = false;
+        boolean batch = false; // Run every script in the directory or list given as the script
+        boolean plugins = false; // Give scripts the natives of the plugins on the class path
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean profile = false;
+        boolean profileAllocations = false;
+        Path profileSamples = null; // Where to write sampled stacks
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("-f") || arg.equals("--fused")) {
+                fused = true;
+            } else if (arg.equals("--lazy")) {
+                // Deferred bodies are resolved by the parser, so this implies --fused
+                lazy = true;
+                fused = true;
+            } else if (arg.equals("--cache")) {
+                cacheDirectory = ProgramCache.defaultDirectory();
+            } else if (arg.startsWith("--cache=")) {
+                cacheDirectory = Path.of(arg.substring("--cache=".length()));
+            } else if (arg.equals("--server") || arg.startsWith("--server=")) {
+                serverPort = optionValue(arg, LoxServer.DEFAULT_PORT);
+            } else if (arg.equals("--connect") || arg.startsWith("--connect=")) {
+                clientPort = optionValue(arg, LoxServer.DEFAULT_PORT);
+            } else if (arg.equals("--server-stats") || arg.startsWith("--server-stats=")) {
+                clientPort = optionValue(arg, LoxServer.DEFAULT_PORT);
+                serverStats = true;
+            } else if (arg.equals("--batch")) {
+                batch = true;
+            } else if (arg.equals("--plugins")) {
+                plugins = true;
+            } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                profile = true;
+                profileTop = optionValue(arg, profileTop);
+            } else if (arg.equals("--profile-alloc")) {
+                profile = true;
+                profileAllocations = true;
+            } else if (arg.startsWith("--profile-samples=")) {
+                profile = true;
+                profileSamples = Path.of(arg.substring("--profile-samples=".length()));
+            } else if (arg.equals("--heap-census") || arg.startsWith("--heap-census=")) {
+                heapCensusTop = optionValue(arg, 20);
+            } else if (arg.equals("--stats")) {
+                RuntimeStats.enabled = true;
+            } else if (arg.startsWith("--threads=")) {
+                threads = optionValue(arg, 0);
+            } else if (arg.contains("-v")) {
+                verbose = true;
+            } else if (script == null && !arg.startsWith("-")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+        if (threads < 1 || ((clientPort != -1 || batch) && script == null && !serverStats))
+            usage();
+
+        // Loading plugins runs their code, so only when asked to
+        LoxNatives natives = plugins ? LoxNatives.discover() : new LoxNatives();
+
+        if (serverStats) {
+            System.exit(new LoxClient(clientPort).stats());
+        } else if (clientPort != -1) {
+            System.exit(new LoxClient(clientPort).run(Paths.get(script)));
+        } else if (serverPort != -1) {
+            new LoxServer(serverPort, threads, fused, lazy, cacheDirectory, natives).serve();
+            return;
+        } else if (batch) {
+            System.exit(new LoxBatch(threads, fused, lazy, cacheDirectory, natives).run(Paths.get(script)));
+        }
+
+        // -v prints tokens, trees and what the cache did
+        PrintStream diagnostics = verbose ? System.out : null;
+        ProgramCache cache = cacheDirectory == null ? null : new ProgramCache(cacheDirectory, diagnostics);
+        modules = new ModuleLoader(fused, lazy, cache, diagnostics);
+        interpreter = new Interpreter(modules, reporter, out);
+        interpreter.define(natives);
+        if (profile) {
+            profiler = new Profiler(profileAllocations, profileSamples);
+            interpreter.profile(profiler);
+        }
+
+        if (script != null) {
+            runFile(script);
         } else {
-            verbose = args.length > 0 ? args[0].contains("-v") : false;
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [-v]? [--fused]? [--lazy]? [--cache[=dir]]? [--plugins]? [--profile[=top]]?"
+                + " [--profile-alloc]? [--profile-samples=file]? [--stats]? [--heap-census[=top]]? [script]");
+        System.out.println("       jlox --server[=port] [--threads=n]? [--fused]? [--lazy]? [--cache[=dir]]? [--plugins]?");
+        System.out.println("       jlox --batch [--threads=n]? [--fused]? [--lazy]? [--cache[=dir]]? [--plugins]? dir|list");
+        System.out.println("       jlox --connect[=port] script");
+        System.out.println("       jlox --server-stats[=port]");
+        System.exit(64);
+    }
+
+    /* The number after '=' in an option like --server=7420, or the default if there's none. */
+    private static int optionValue(String arg, int defaultValue) {
+        int equals = arg.indexOf('=');
+        if (equals == -1)
+            return defaultValue;
+        try {
+            return Integer.parseInt(arg.substring(equals + 1));
+        } catch (NumberFormatException e) {
+            usage();
+            return defaultValue;
+        }
+    }
+
     public static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        run(Paths.get(path), new String(bytes, Charset.defaultCharset()));
+        interpreter.closeFiles();
+        if (profiler != null) {
+            profiler.report(System.err, profileTop);
+            profiler.writeSamples();
+        }
+        if (RuntimeStats.enabled)
+            RuntimeStats.report(System.err);
+        if (heapCensusTop > 0)
+            interpreter.heapCensus().report(System.err, heapCensusTop);
 
         // Indicate an error in the exit code
         if (hadError)
@@ -55,42 +194,32 @@ public class Lox {
             // IF user make a mistake, we shouldn't end their session4
             hadError = false;
         }
+        interpreter.closeFiles();
     }
 
     public static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        if (verbose) {
-            for (Token token : tokens) {
-                System.out.println("[scanner] token: " + token);
-            }
-        }
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        // Stop if there was a syntax error
-        if (hadError)
-            return;
-
-        if (verbose)
-            new AstPrinter().print(statements);
+        run(null, source);
+    }
 
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+    /* Run source that came from the given file (or from the REPL, if null). */
+    private static void run(Path path, String source) {
+        Module module = modules.load(path, source, reporter);
 
-        // Stop if there was a resolution error
-        if (hadError)
+        // Stop if there was a syntax or resolution error, in this file or one it imports
+        if (module == null)
             return;
 
-        interpreter.interpret(statements);
+        try {
+            interpreter.interpret(module);
+        } finally {
+            out.flush();
+        }
     }
 
     protected static String runToString(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
 
-        Scanner scanner = new Scanner(new String(bytes, Charset.defaultCharset()));
+        Scanner scanner = new Scanner(new String(bytes, Charset.defaultCharset()), reporter);
         List<Token> tokens = scanner.scanTokens();
 
         String result = "";
@@ -102,27 +231,4 @@ public class Lox {
         return result;
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
-
-    /* Report error at given token */
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
-    }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println("[line " + error.token.line + "] " + error.getMessage());
-        hadRuntimeError = true;
-    }
-
 }
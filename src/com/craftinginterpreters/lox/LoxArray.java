@@ -0,0 +1,275 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lox's built-in Array: a growable list of values, made with Array().
+ *
+ * While it only holds numbers it keeps them unboxed in a double[], which is
+ * much smaller and faster to fill. The first value that isn't a number moves
+ * everything to an Object[] for good.
+ *
+ * array.get(i), array.set(i, value), array.push(value), array.length(),
+ * array.slice(start, end) (end not included), array.join(separator).
+ *
+ * Arrays of only numbers also have bulk operations, which run in Java rather
+ * than one element at a time in the interpreter: sum(), min(), max(),
+ * dot(other), add(other), mul(other), scale(factor), prefixSum() and
+ * filter(operator, number) (e.g. filter(">", 0)). The ones that make arrays
+ * return new ones.
+ */
+class LoxArray implements NativeObject {
+    private static final List<String> FILTER_OPERATORS = Arrays.asList("<", "<=", ">", ">=", "==", "!=");
+
+    private double[] numbers; // While it only holds numbers
+    private Object[] values; // Once it holds anything else
+    private int size = 0;
+
+    LoxArray() {
+        this(8);
+    }
+
+    private LoxArray(int capacity) {
+        numbers = new double[Math.max(capacity, 8)];
+    }
+
+    /* An array of the first size numbers, which it takes over. */
+    private LoxArray(double[] numbers, int size) {
+        this.numbers = numbers.length == 0 ? new double[8] : numbers;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        if (values != null)
+            return values[index];
+        RuntimeStats.count(RuntimeStats.Counter.NUMBERS);
+        return numbers[index];
+    }
+
+    void set(int index, Object value) {
+        if (values == null) {
+            if (value instanceof Double) {
+                numbers[index] = (Double) value;
+                return;
+            }
+            generalize();
+        }
+        values[index] = value;
+    }
+
+    void push(Object value) {
+        int capacity = values != null ? values.length : numbers.length;
+        if (size == capacity) {
+            if (values != null) {
+                values = Arrays.copyOf(values, capacity * 2);
+            } else {
+                numbers = Arrays.copyOf(numbers, capacity * 2);
+            }
+        }
+        size++;
+        set(size - 1, value);
+    }
+
+    /* Store everything as objects from now on. */
+    private void generalize() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    /* The values the array holds, if it holds more than numbers. For the heap census. */
+    Object[] values() {
+        return values;
+    }
+
+    /* The bytes the array's storage takes up. For the heap census. */
+    long storageBytes() {
+        return values != null ? 16 + 4L * values.length : 16 + 8L * numbers.length;
+    }
+
+    @Override
+    public int arity(String method) {
+        switch (method) {
+            case "length":
+            case "sum":
+            case "min":
+            case "max":
+            case "prefixSum":
+                return 0;
+            case "get":
+            case "push":
+            case "dot":
+            case "add":
+            case "mul":
+            case "scale":
+            case "join":
+                return 1;
+            case "set":
+            case "slice":
+            case "filter":
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Object call(Token method, List<Object> arguments) {
+        switch (method.lexeme) {
+            case "get":
+                return get(index(method, arguments.get(0), size));
+            case "set":
+                set(index(method, arguments.get(0), size), arguments.get(1));
+                return arguments.get(1);
+            case "push":
+                push(arguments.get(0));
+                return null;
+            case "length":
+                return (double) size;
+            case "slice":
+                int start = index(method, arguments.get(0), size + 1);
+                int end = index(method, arguments.get(1), size + 1);
+                if (end < start)
+                    throw new RuntimeError(method, "Slice end must not be before its start.");
+                return slice(start, end);
+            case "sum":
+                return NumberArrays.sum(numbers(method), size);
+            case "min":
+                return size == 0 ? null : (Object) NumberArrays.min(numbers(method), size);
+            case "max":
+                return size == 0 ? null : (Object) NumberArrays.max(numbers(method), size);
+            case "dot":
+                return NumberArrays.dot(numbers(method), otherNumbers(method, arguments.get(0)), size);
+            case "add":
+                return new LoxArray(NumberArrays.add(numbers(method), otherNumbers(method, arguments.get(0)), size),
+                        size);
+            case "mul":
+                return new LoxArray(
+                        NumberArrays.multiply(numbers(method), otherNumbers(method, arguments.get(0)), size), size);
+            case "scale":
+                return new LoxArray(NumberArrays.scale(numbers(method), number(method, arguments.get(0)), size),
+                        size);
+            case "prefixSum":
+                return new LoxArray(NumberArrays.prefixSum(numbers(method), size), size);
+            case "filter":
+                return filter(method, arguments.get(0), arguments.get(1));
+            case "join":
+                return join(method, arguments.get(0));
+            default:
+                // arity() said there's no such method
+                throw new IllegalArgumentException(method.lexeme);
+        }
+    }
+
+    private LoxArray slice(int start, int end) {
+        LoxArray slice = new LoxArray(end - start);
+        if (values != null) {
+            slice.generalize();
+            System.arraycopy(values, start, slice.values, 0, end - start);
+        } else {
+            System.arraycopy(numbers, start, slice.numbers, 0, end - start);
+        }
+        slice.size = end - start;
+        return slice;
+    }
+
+    private LoxArray filter(Token method, Object operator, Object operand) {
+        String name = StringView.asString(operator);
+        if (name == null || !FILTER_OPERATORS.contains(name))
+            throw new RuntimeError(method, "Filter operator must be one of " + FILTER_OPERATORS + ".");
+        int[] count = new int[1];
+        double[] kept = NumberArrays.filter(numbers(method), size, name, number(method, operand), count);
+        return new LoxArray(kept, count[0]);
+    }
+
+    /* The elements as one string, formatted as print does, with the separator between them. */
+    private String join(Token method, Object separator) {
+        if (!StringView.isString(separator))
+            throw new RuntimeError(method, "Separator must be a string.");
+        StringBuilder text = new StringBuilder();
+        Set<Object> enclosing = Collections.newSetFromMap(new IdentityHashMap<>());
+        enclosing.add(this);
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                text.append((CharSequence) separator);
+            if (values == null) {
+                NumberFormatter.append(text, numbers[i]);
+            } else {
+                Interpreter.stringify(text, values[i], enclosing);
+            }
+        }
+        return text.toString();
+    }
+
+    /* The numbers, for a method that only works on arrays of numbers. */
+    private double[] numbers(Token method) {
+        if (values != null)
+            throw new RuntimeError(method, "Array must only hold numbers.");
+        return numbers;
+    }
+
+    /* The numbers in another array of the same length. */
+    private double[] otherNumbers(Token method, Object other) {
+        if (!(other instanceof LoxArray))
+            throw new RuntimeError(method, "Operand must be an array.");
+        LoxArray array = (LoxArray) other;
+        if (array.size != size)
+            throw new RuntimeError(method, "Arrays must have the same length.");
+        return array.numbers(method);
+    }
+
+    private static double number(Token method, Object value) {
+        if (!(value instanceof Double))
+            throw new RuntimeError(method, "Operand must be a number.");
+        return (Double) value;
+    }
+
+    /* Check an index argument, which must be a whole number below the limit. */
+    private static int index(Token method, Object index, int limit) {
+        if (!(index instanceof Double))
+            throw new RuntimeError(method, "Array index must be a number.");
+        double value = (Double) index;
+        if (value != Math.floor(value))
+            throw new RuntimeError(method, "Array index must be a whole number.");
+        if (value < 0 || value >= limit)
+            throw new RuntimeError(method, "Array index out of bounds.");
+        return (int) value;
+    }
+
+    /* Format the array as print does. An array inside itself prints as [...]. */
+    void appendTo(StringBuilder text, Set<Object> enclosing) {
+        if (!enclosing.add(this)) {
+            text.append("[...]");
+            return;
+        }
+        text.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                text.append(", ");
+            if (values == null) {
+                NumberFormatter.append(text, numbers[i]);
+            } else {
+                Interpreter.stringify(text, values[i], enclosing);
+            }
+        }
+        text.append(']');
+        enclosing.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        appendTo(text, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return text.toString();
+    }
+}
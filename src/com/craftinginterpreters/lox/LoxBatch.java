@@ -0,0 +1,128 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many scripts in one JVM, so they share its warmed-up JIT code instead
+ * of each paying for a JVM of its own. Every script gets fresh globals.
+ *
+ * Scripts run on a pool of threads, but their output is printed in order, each
+ * after a header line with the script's path and exit code.
+ */
+class LoxBatch {
+    private final LoxEngine engine;
+    private final int threads;
+
+    LoxBatch(int threads, boolean fused, boolean lazy, Path cacheDirectory, LoxNatives natives) {
+        this.engine = new LoxEngine(fused, lazy, cacheDirectory, natives);
+        this.threads = threads;
+    }
+
+    /* What one script printed, and how it ended. */
+    private static class Result {
+        final Path path;
+        final byte[] output;
+        final int exitCode;
+        final long nanos;
+
+        Result(Path path, byte[] output, int exitCode, long nanos) {
+            this.path = path;
+            this.output = output;
+            this.exitCode = exitCode;
+            this.nanos = nanos;
+        }
+    }
+
+    /*
+     * Run every .lox file under a directory, or every path listed in a file (one
+     * per line). Returns the highest exit code of any script.
+     */
+    int run(Path source) throws IOException {
+        List<Path> scripts = scriptsIn(source);
+
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> results = new ArrayList<>();
+        for (Path script : scripts) {
+            results.add(workers.submit(() -> runScript(script)));
+        }
+
+        int exitCode = 0;
+        int failed = 0;
+        try {
+            for (Future<Result> future : results) {
+                Result result = future.get();
+                System.out.println("==> " + result.path + " (exit " + result.exitCode + ", "
+                        + String.format("%.2fms", result.nanos / 1e6) + ") <==");
+                System.out.write(result.output);
+                System.out.flush();
+
+                if (result.exitCode != 0)
+                    failed++;
+                exitCode = Math.max(exitCode, result.exitCode);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Batch run failed.", e);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        System.err.println(scripts.size() + " scripts, " + failed + " failed, in "
+                + String.format("%.2fs", (System.nanoTime() - start) / 1e9) + " on " + threads + " threads");
+        return exitCode;
+    }
+
+    private Result runScript(Path path) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, true);
+
+        int exitCode;
+        try {
+            ExecutionResult result = engine.execute(engine.compile(path), out);
+            for (LoxError error : result.errors()) {
+                out.println(error);
+            }
+            exitCode = result.exitCode();
+        } catch (IOException e) {
+            out.println("Can't read '" + path + "'.");
+            exitCode = 66;
+        }
+
+        out.flush();
+        return new Result(path, output.toByteArray(), exitCode, System.nanoTime() - start);
+    }
+
+    private static List<Path> scriptsIn(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.walk(source)) {
+                return files.filter(path -> path.toString().endsWith(".lox") && Files.isRegularFile(path))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+
+        // A list of scripts, skipping blank lines and # comments
+        List<Path> scripts = new ArrayList<>();
+        for (String line : Files.readAllLines(source, Charset.defaultCharset())) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                scripts.add(Paths.get(line));
+        }
+        return scripts;
+    }
+}
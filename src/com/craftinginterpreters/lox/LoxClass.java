@@ -6,7 +6,7 @@ import java.util.Map;
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
+    final Map<String, LoxFunction> methods;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.superclass = superclass;
@@ -27,6 +27,11 @@ class LoxClass implements LoxCallable {
         return null;
     }
 
+    /* Whether the method is declared in this class, rather than inherited. */
+    boolean hasOwnMethod(String name) {
+        return methods.containsKey(name);
+    }
+
     @Override
     public String toString() {
         return name;
@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Sends a request to a LoxServer and relays what comes back, so running a
+ * script through the server looks just like running it directly. Requests
+ * carry the token the server wrote to its token file, which only the user
+ * running the server can read.
+ */
+class LoxClient {
+    private final int port;
+
+    LoxClient(int port) {
+        this.port = port;
+    }
+
+    /* Run a script on the server, in this directory. Returns its exit code. */
+    int run(Path script) {
+        return request("run", script.toAbsolutePath().normalize().toString(),
+                Paths.get("").toAbsolutePath().toString());
+    }
+
+    /* Print the server's request counts and latencies. */
+    int stats() {
+        return request("stats");
+    }
+
+    private int request(String command, String... arguments) {
+        Path tokenFile = LoxServer.tokenFile(port);
+        String token;
+        try {
+            token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Can't read the jlox server's token from " + tokenFile + ". Is the server running?");
+            return 69;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(token);
+            out.writeUTF(command);
+            for (String argument : arguments) {
+                out.writeUTF(argument);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            for (;;) {
+                byte kind = in.readByte();
+                if (kind == LoxServer.EXIT)
+                    return in.readInt();
+
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                PrintStream stream = kind == LoxServer.STDERR ? System.err : System.out;
+                stream.write(bytes);
+                stream.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("The jlox server closed the connection without an exit code.");
+            return 70;
+        } catch (IOException e) {
+            System.err.println("Can't reach a jlox server on port " + port + ": " + e.getMessage());
+            return 69;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs Lox from Java. Unlike the command line, an engine keeps no global state:
+ * errors come back as values instead of being printed, and every run gets an
+ * interpreter of its own. So one engine can be shared by many threads, compiling
+ * a script once and running it on all of them at the same time.
+ *
+ * <pre>
+ * LoxEngine engine = new LoxEngine();
+ * CompiledScript script = engine.compile("print 1 + 2;");
+ * ExecutionResult result = engine.execute(script);
+ * </pre>
+ */
+public final class LoxEngine {
+    private final ModuleLoader modules;
+    private final LoxNatives natives;
+
+    public LoxEngine() {
+        this(false, false, null);
+    }
+
+    public LoxEngine(boolean fused, boolean lazy, Path cacheDirectory) {
+        this(fused, lazy, cacheDirectory, new LoxNatives());
+    }
+
+    /*
+     * fused: resolve variables while parsing. lazy: parse function bodies when
+     * they're first called (implies fused). cacheDirectory: where to keep compiled
+     * programs on disk, or null. natives: Java methods scripts can call, besides
+     * the built-in ones. None by default; LoxNatives.discover() has the plugins on
+     * the class path.
+     */
+    public LoxEngine(boolean fused, boolean lazy, Path cacheDirectory, LoxNatives natives) {
+        // An embedder gets errors as values, and nothing printed
+        ProgramCache cache = cacheDirectory == null ? null : new ProgramCache(cacheDirectory, null);
+        this.modules = new ModuleLoader(fused || lazy, lazy, cache, null);
+        this.natives = natives;
+    }
+
+    /* Compile source that isn't from a file. Its imports are relative to the working directory. */
+    public CompiledScript compile(String source) {
+        return compile(null, source);
+    }
+
+    public CompiledScript compile(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        return compile(path, new String(bytes, Charset.defaultCharset()));
+    }
+
+    private CompiledScript compile(Path path, String source) {
+        ErrorCollector errors = new ErrorCollector();
+        Module module = modules.load(path, source, errors);
+        return new CompiledScript(module, errors.errors());
+    }
+
+    /* Whether a file this engine compiled has changed since, so its scripts may be out of date. */
+    boolean isStale() {
+        return modules.isStale();
+    }
+
+    public ExecutionResult execute(CompiledScript script) {
+        return execute(script, System.out);
+    }
+
+    /* Run a script with fresh globals, sending what it prints to the given stream. */
+    public ExecutionResult execute(CompiledScript script, PrintStream out) {
+        return execute(script, OutputSink.of(out));
+    }
+
+    /* Run a script with fresh globals, sending what it prints to the given sink, which is flushed at the end. */
+    public ExecutionResult execute(CompiledScript script, OutputSink out) {
+        return execute(script, out, null);
+    }
+
+    /*
+     * Likewise, but the script's relative file paths (e.g. for readFile()) are
+     * relative to the given directory instead of the process's working directory.
+     */
+    public ExecutionResult execute(CompiledScript script, OutputSink out, Path workingDirectory) {
+        if (script.hasErrors())
+            return new ExecutionResult(script.errors());
+
+        ErrorCollector errors = new ErrorCollector();
+        Interpreter interpreter = new Interpreter(modules, errors, out);
+        interpreter.define(natives);
+        interpreter.workingDirectory(workingDirectory);
+        try {
+            interpreter.interpret(script.module);
+        } finally {
+            interpreter.closeFiles();
+            out.flush();
+        }
+        return new ExecutionResult(errors.errors());
+    }
+}
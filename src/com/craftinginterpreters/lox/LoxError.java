@@ -0,0 +1,47 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * An error found while compiling or running a script, as returned by LoxEngine.
+ */
+public final class LoxError {
+    public enum Kind {
+        COMPILE, // A syntax or resolution error; the script can't run
+        RUNTIME // An error that stopped a running script
+    }
+
+    private final Kind kind;
+    private final int line;
+    private final String where;
+    private final String message;
+
+    LoxError(Kind kind, int line, String where, String message) {
+        this.kind = kind;
+        this.line = line;
+        this.where = where;
+        this.message = message;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    String where() {
+        return where;
+    }
+
+    /* Formatted the way the command line prints it. */
+    @Override
+    public String toString() {
+        if (kind == Kind.RUNTIME)
+            return "[line " + line + "] " + message;
+        return "[line " + line + "] Error" + where + ": " + message;
+    }
+}
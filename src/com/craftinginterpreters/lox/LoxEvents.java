@@ -0,0 +1,200 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for what Lox code is doing, so it shows up in a
+ * recording next to the GC and CPU data. They're all in the "Lox" category.
+ *
+ * Nothing here touches an event class unless a recording is running: just
+ * loading a subclass of Event starts up part of the flight recorder, which
+ * takes longer than running most scripts.
+ */
+class LoxEvents {
+    // Whether any recording is running. Kept up to date by a listener, since
+    // asking the flight recorder on every call would cost more than the call.
+    static volatile boolean recording = false;
+    private static volatile boolean listening = false;
+
+    /*
+     * Start following recordings, if the flight recorder is up. Registering the
+     * listener loads enough of the recorder to slow down startup, so it waits
+     * until something (-XX:StartFlightRecording, jcmd JFR.start) has started it.
+     * Called before compiling and running each script, so a recording started
+     * in the middle of a script is only seen by the scripts after it.
+     */
+    static void check() {
+        if (listening || !FlightRecorder.isInitialized())
+            return;
+        synchronized (LoxEvents.class) {
+            if (listening)
+                return;
+            listening = true;
+        }
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                update();
+            }
+        });
+        update();
+    }
+
+    private static void update() {
+        boolean running = false;
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() == RecordingState.RUNNING)
+                running = true;
+        }
+        recording = running;
+    }
+
+    /* Start timing a compile phase. Returns null if not recording. */
+    static Object beginCompile() {
+        check();
+        if (!recording)
+            return null;
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitCompile(Object started, String phase, Path path, String source) {
+        if (started == null)
+            return;
+        CompileEvent event = (CompileEvent) started;
+        event.end();
+        if (!event.shouldCommit())
+            return;
+        event.phase = phase;
+        event.file = fileName(path);
+        event.sourceLength = source.length();
+        event.commit();
+    }
+
+    /* Call a function (or class) while recording, timing the call. */
+    static Object call(Interpreter interpreter, LoxCallable function, List<Object> arguments) {
+        if (function instanceof LoxClass) {
+            InstantiateEvent event = new InstantiateEvent();
+            event.begin();
+            try {
+                return function.call(interpreter, arguments);
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.className = ((LoxClass) function).name;
+                    event.commit();
+                }
+            }
+        }
+
+        CallEvent event = new CallEvent();
+        event.begin();
+        try {
+            return function.call(interpreter, arguments);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                if (function instanceof LoxFunction) {
+                    LoxFunction loxFunction = (LoxFunction) function;
+                    event.function = loxFunction.declaration.name.lexeme;
+                    event.file = fileName(loxFunction.module.path);
+                    event.line = loxFunction.declaration.name.line;
+                } else {
+                    event.function = function.toString();
+                }
+                event.commit();
+            }
+        }
+    }
+
+    static void runtimeError(RuntimeError error, Module module) {
+        if (!recording)
+            return;
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (event.shouldCommit()) {
+            event.message = error.getMessage();
+            event.script = fileName(module.path);
+            event.line = error.token.line;
+            event.commit();
+        }
+    }
+
+    private static String fileName(Path path) {
+        return path == null ? "<repl>" : path.toString();
+    }
+
+    @Name("lox.Compile")
+    @Label("Lox Compile Phase")
+    @Category("Lox")
+    @Description("Scanning, parsing or resolving one source file, or loading it from the cache")
+    @StackTrace(false)
+    static class CompileEvent extends Event {
+        @Label("Phase")
+        @Description("scan, parse (which also resolves when fused), resolve, or cache for a program loaded from the on-disk cache")
+        String phase;
+
+        @Label("File")
+        String file;
+
+        @Label("Source Length")
+        @Description("In characters")
+        int sourceLength;
+    }
+
+    @Name("lox.Call")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Description("A call to a Lox function or native that took longer than the threshold")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static class CallEvent extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("File")
+        String file;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.Instantiate")
+    @Label("Lox Class Instantiation")
+    @Category("Lox")
+    @Description("Creating an instance of a Lox class, including running its initializer")
+    @StackTrace(false)
+    static class InstantiateEvent extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @Description("A runtime error that stopped a script")
+    @StackTrace(false)
+    static class RuntimeErrorEvent extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Script")
+        String script;
+
+        @Label("Line")
+        int line;
+    }
+}
@@ -0,0 +1,276 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A file opened with openFile(path, mode), in the same charset as Lox sources.
+ * Mode "r" reads it, "w" writes it from scratch and "a" appends to it.
+ *
+ * Reading is lazy: file.readLine() (without the line break, nil at the end)
+ * and file.read(n) (up to n characters, nil at the end) decode through one
+ * buffer of bytes and one of characters, reused for the whole file, so a file
+ * of any size takes the same memory. Only a line longer than the buffer is
+ * copied out of it before it's done.
+ *
+ * file.write(value) and file.writeLine(value) write values as print does,
+ * through a ChannelOutputSink, and file.writeJson(value) writes a value as a
+ * line of JSON. file.close() closes it; files still open when
+ * the script ends are closed then.
+ */
+class LoxFile implements NativeObject {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    final String path;
+    private final FileChannel channel;
+    private final Set<LoxFile> openFiles; // The interpreter's, which this leaves when it's closed
+    private boolean closed = false;
+
+    // Reading: bytes waits to be decoded (in write mode), chars to be read (in read mode)
+    private ByteBuffer bytes;
+    private CharBuffer chars;
+    private CharsetDecoder decoder;
+    private boolean endOfInput = false; // The channel has nothing more
+    private boolean decoded = false; // Nor does the decoder
+    private StringBuilder line; // A line that didn't fit in the buffer
+
+    // Writing
+    private ChannelOutputSink sink;
+
+    private LoxFile(String path, FileChannel channel, boolean reading, Set<LoxFile> openFiles) {
+        this.path = path;
+        this.channel = channel;
+        this.openFiles = openFiles;
+        if (reading) {
+            bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            chars = CharBuffer.allocate(BUFFER_SIZE);
+            chars.flip();
+            decoder = Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            line = new StringBuilder();
+        } else {
+            sink = new ChannelOutputSink(channel, Charset.defaultCharset(), ChannelOutputSink.Flush.NEVER);
+        }
+    }
+
+    /* A path a script gave, relative to the directory if it isn't absolute (and there is one). */
+    static Path resolve(Path directory, String path) {
+        return directory == null ? Paths.get(path) : directory.resolve(path);
+    }
+
+    static LoxFile open(Object pathValue, Object modeValue, Path directory, Set<LoxFile> openFiles) {
+        String path = StringView.asString(pathValue);
+        String mode = StringView.asString(modeValue);
+        if (path == null)
+            throw new NativeError("Path must be a string.");
+        StandardOpenOption[] options;
+        if ("r".equals(mode)) {
+            options = new StandardOpenOption[] { StandardOpenOption.READ };
+        } else if ("w".equals(mode)) {
+            options = new StandardOpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING };
+        } else if ("a".equals(mode)) {
+            options = new StandardOpenOption[] { StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND };
+        } else {
+            throw new NativeError("Mode must be \"r\", \"w\" or \"a\".");
+        }
+
+        try {
+            FileChannel channel = FileChannel.open(resolve(directory, path), options);
+            LoxFile file = new LoxFile(path, channel, mode.equals("r"), openFiles);
+            openFiles.add(file);
+            return file;
+        } catch (IOException e) {
+            throw new NativeError("Could not open '" + path + "'.");
+        }
+    }
+
+    /* The whole of a file, for readFile(). */
+    static String readAll(Object pathValue, Path directory) {
+        String path = StringView.asString(pathValue);
+        if (path == null)
+            throw new NativeError("Path must be a string.");
+        Path file = resolve(directory, path);
+        try {
+            return new String(Files.readAllBytes(file), Charset.defaultCharset());
+        } catch (IOException e) {
+            throw new NativeError("Could not read '" + path + "'.");
+        }
+    }
+
+    private String readLine() throws IOException {
+        line.setLength(0);
+        boolean partial = false;
+        for (;;) {
+            char[] array = chars.array();
+            int start = chars.position();
+            int end = chars.limit();
+            for (int i = start; i < end; i++) {
+                if (array[i] != '\n')
+                    continue;
+                chars.position(i + 1);
+                if (!partial) {
+                    // The whole line is in the buffer
+                    return new String(array, start, i > start && array[i - 1] == '\r' ? i - 1 - start : i - start);
+                }
+                line.append(array, start, i - start);
+                if (line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+                    line.setLength(line.length() - 1);
+                return line.toString();
+            }
+
+            // The line goes on past the buffer
+            line.append(array, start, end - start);
+            partial = true;
+            chars.position(end);
+            if (!fill())
+                return line.length() > 0 ? line.toString() : null;
+        }
+    }
+
+    private String read(int count) throws IOException {
+        if (!chars.hasRemaining() && !fill())
+            return null;
+        count = Math.min(count, chars.remaining());
+        String text = new String(chars.array(), chars.position(), count);
+        chars.position(chars.position() + count);
+        return text;
+    }
+
+    /* The characters read but not yet used, or null if the file isn't open for reading. */
+    CharBuffer chars() {
+        return chars;
+    }
+
+    /* Decode more characters into the buffer. Returns false if there are none left. */
+    boolean fill() throws IOException {
+        chars.compact();
+        while (!decoded && chars.position() == 0) {
+            if (!endOfInput && channel.read(bytes) == -1)
+                endOfInput = true;
+            bytes.flip();
+            // Once all input has been decoded, the decoder may still hold a little
+            if (!decoder.decode(bytes, chars, endOfInput).isOverflow() && endOfInput
+                    && !decoder.flush(chars).isOverflow())
+                decoded = true;
+            bytes.compact();
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    /* Close the file, writing out anything still buffered. Returns whether that worked. */
+    boolean close() {
+        if (closed)
+            return true;
+        closed = true;
+        openFiles.remove(this);
+        if (sink != null)
+            sink.flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            return false;
+        }
+        return sink == null || !sink.failed();
+    }
+
+    @Override
+    public int arity(String method) {
+        switch (method) {
+            case "readLine":
+            case "close":
+                return 0;
+            case "read":
+            case "write":
+            case "writeLine":
+            case "writeJson":
+                return 1;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Object call(Token method, List<Object> arguments) {
+        if (method.lexeme.equals("close")) {
+            if (!close())
+                throw new RuntimeError(method, "Could not write to '" + path + "'.");
+            return null;
+        }
+        if (closed)
+            throw new RuntimeError(method, "File is closed.");
+
+        switch (method.lexeme) {
+            case "readLine":
+            case "read":
+                if (chars == null)
+                    throw new RuntimeError(method, "File is not open for reading.");
+                try {
+                    if (method.lexeme.equals("readLine"))
+                        return readLine();
+                    return read(count(method, arguments.get(0)));
+                } catch (IOException e) {
+                    throw new RuntimeError(method, "Could not read '" + path + "'.");
+                }
+            case "write":
+            case "writeLine":
+                if (sink == null)
+                    throw new RuntimeError(method, "File is not open for writing.");
+                Object value = arguments.get(0);
+                if (method.lexeme.equals("write")) {
+                    sink.print(value instanceof StringView ? (StringView) value : Interpreter.stringify(value));
+                } else if (value instanceof Double) {
+                    sink.println((double) (Double) value);
+                } else if (value instanceof StringView) {
+                    sink.println((StringView) value);
+                } else {
+                    sink.println(Interpreter.stringify(value));
+                }
+                if (sink.failed())
+                    throw new RuntimeError(method, "Could not write to '" + path + "'.");
+                return null;
+            case "writeJson":
+                if (sink == null)
+                    throw new RuntimeError(method, "File is not open for writing.");
+                try {
+                    JsonWriter.write(arguments.get(0), sink, true);
+                } catch (NativeError error) {
+                    throw new RuntimeError(method, error.getMessage());
+                }
+                if (sink.failed())
+                    throw new RuntimeError(method, "Could not write to '" + path + "'.");
+                return null;
+            default:
+                // arity() said there's no such method
+                throw new IllegalArgumentException(method.lexeme);
+        }
+    }
+
+    private static int count(Token method, Object count) {
+        if (!(count instanceof Double))
+            throw new RuntimeError(method, "Count must be a number.");
+        double value = (Double) count;
+        if (value != Math.floor(value) || value < 1)
+            throw new RuntimeError(method, "Count must be a positive whole number.");
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+}
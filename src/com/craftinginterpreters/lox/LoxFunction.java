@@ -3,24 +3,27 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    final Environment closure;
+    final Module module; // The module the function was declared in
 
     private final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure,
+    LoxFunction(Stmt.Function declaration, Environment closure, Module module,
             boolean isInitializer) {
         this.isInitializer = isInitializer;
         this.closure = closure;
+        this.module = module;
         this.declaration = declaration;
     }
 
     LoxFunction bind(LoxInstance instance) {
+        RuntimeStats.count(RuntimeStats.Counter.BOUND_METHODS);
         Environment environment = new Environment(closure);
         environment.define("this", instance);
         // This is sort of a "closure-within-a-closure". WHen the method is called, that
         // will become the parent of the method body's environment
-        return new LoxFunction(declaration, environment,
+        return new LoxFunction(declaration, environment, module,
                 isInitializer);
     }
 
@@ -34,7 +37,7 @@ class LoxFunction implements LoxCallable {
         }
 
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(declaration.body, environment, module);
         } catch (Return returnValue) {
             if (isInitializer)
                 return closure.getAt(0, "this");
@@ -4,11 +4,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
-    private LoxClass loxClass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass loxClass;
+    final Map<String, Object> fields = new HashMap<>();
 
     LoxInstance(LoxClass loxClass) {
         this.loxClass = loxClass;
+        RuntimeStats.count(RuntimeStats.Counter.INSTANCES);
     }
 
     @Override
@@ -19,13 +20,20 @@ class LoxInstance {
     /* Get a property (field store on the instance or method stored on the class) */
     Object get(Token name) {
         if (fields.containsKey(name.lexeme)) {
+            RuntimeStats.count(RuntimeStats.Counter.FIELD_GETS);
             return fields.get(name.lexeme);
         }
 
         // If we don't find a field, look for a method in the class
         LoxFunction method = loxClass.findMethod(name.lexeme);
-        if (method != null)
+        if (method != null) {
+            if (RuntimeStats.enabled)
+                RuntimeStats.count(loxClass.hasOwnMethod(name.lexeme) ? RuntimeStats.Counter.METHOD_GETS
+                        : RuntimeStats.Counter.INHERITED_METHOD_GETS);
             return method.bind(this);
+        }
+
+        RuntimeStats.count(RuntimeStats.Counter.UNDEFINED_GETS);
 
         // Unlike javascript (which silently returns undefined), we throw an error if a
         // property isnt defined
@@ -0,0 +1,320 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Lox's built-in Map, made with Map(). Keys can be any value, and two keys are
+ * the same key when == says they're equal.
+ *
+ * It's an open addressing hash table with linear probing, so an entry is just a
+ * slot in a few arrays rather than an object of its own. While every key is a
+ * number, the keys are kept unboxed (as their bits) and compared without
+ * equals(). The first key that isn't a number moves them all to an Object[].
+ * Each slot also keeps its key's hash, so probing only calls equals() on keys
+ * whose hashes match, and growing the table never rehashes a key.
+ *
+ * map.get(key) (nil if missing), map.set(key, value), map.has(key),
+ * map.delete(key) (whether it was there), map.size(), map.keys() and
+ * map.values() (as Arrays, in the same order).
+ */
+class LoxMap implements NativeObject {
+    private static final Object EMPTY = new Object(); // The value of an unused slot
+
+    private long[] numberKeys; // While every key is a number: their bits
+    private Object[] keys; // Once a key isn't a number
+    private int[] hashes;
+    private Object[] values;
+    private int size = 0; // Not counting nil
+    // nil can't go in the table, since null marks an empty generic slot
+    private boolean hasNilKey = false;
+    private Object nilValue = null;
+
+    LoxMap() {
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        if (keys != null) {
+            keys = new Object[capacity];
+        } else {
+            numberKeys = new long[capacity];
+        }
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    int size() {
+        return size + (hasNilKey ? 1 : 0);
+    }
+
+    /*
+     * The hash of a key. Numbers hash their bits, the same way whether the table
+     * holds only numbers or not, and Double.equals() is what == uses for numbers.
+     */
+    private static int hash(Object key) {
+        if (key instanceof Double)
+            return hashBits(Double.doubleToLongBits((Double) key));
+        int h = key.hashCode();
+        // Spread the bits, since only the low ones pick the slot
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /* Mix all of the bits, since whole numbers only differ in their high ones. */
+    private static int hashBits(long bits) {
+        bits ^= bits >>> 33;
+        bits *= 0xff51afd7ed558ccdL;
+        bits ^= bits >>> 33;
+        return (int) bits;
+    }
+
+    /* The slot holding the key, or -1. */
+    private int find(Object key) {
+        int mask = values.length - 1;
+        if (keys == null) {
+            if (!(key instanceof Double))
+                return -1;
+            long bits = Double.doubleToLongBits((Double) key);
+            for (int i = hashBits(bits) & mask; values[i] != EMPTY; i = (i + 1) & mask) {
+                if (numberKeys[i] == bits)
+                    return i;
+            }
+            return -1;
+        }
+
+        int hash = hash(key);
+        for (int i = hash & mask; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (hashes[i] == hash && keys[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    /* Keys are Strings, not views of them, so they hash and compare as Strings do. */
+    private static Object key(Object key) {
+        return key instanceof StringView ? key.toString() : key;
+    }
+
+    Object get(Object key) {
+        key = key(key);
+        if (key == null)
+            return nilValue;
+        int slot = find(key);
+        return slot == -1 ? null : values[slot];
+    }
+
+    boolean has(Object key) {
+        key = key(key);
+        return key == null ? hasNilKey : find(key) != -1;
+    }
+
+    void set(Object key, Object value) {
+        key = key(key);
+        if (key == null) {
+            hasNilKey = true;
+            nilValue = value;
+            return;
+        }
+        if (keys == null && !(key instanceof Double))
+            generalize();
+
+        int slot = find(key);
+        if (slot != -1) {
+            values[slot] = value;
+            return;
+        }
+
+        // Keep the table at most two thirds full, so probes stay short
+        if ((size + 1) * 3 > values.length * 2)
+            grow();
+        insert(key, hash(key), value);
+        size++;
+    }
+
+    private void insert(Object key, int hash, Object value) {
+        int mask = values.length - 1;
+        int i = hash & mask;
+        while (values[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        if (keys == null) {
+            numberKeys[i] = Double.doubleToLongBits((Double) key);
+        } else {
+            keys[i] = key;
+        }
+        hashes[i] = hash;
+        values[i] = value;
+    }
+
+    boolean delete(Object key) {
+        key = key(key);
+        if (key == null) {
+            boolean had = hasNilKey;
+            hasNilKey = false;
+            nilValue = null;
+            return had;
+        }
+        int slot = find(key);
+        if (slot == -1)
+            return false;
+        remove(slot);
+        size--;
+        return true;
+    }
+
+    /*
+     * Empty a slot without leaving a tombstone: move back any later entry in the
+     * same run that would no longer be found past the gap.
+     */
+    private void remove(int gap) {
+        int mask = values.length - 1;
+        for (int i = (gap + 1) & mask; values[i] != EMPTY; i = (i + 1) & mask) {
+            int home = hashes[i] & mask;
+            // The entry can move to the gap if its home isn't cyclically within (gap, i]
+            boolean reachable = gap <= i ? (home > gap && home <= i) : (home > gap || home <= i);
+            if (!reachable) {
+                move(i, gap);
+                gap = i;
+            }
+        }
+        if (keys != null)
+            keys[gap] = null;
+        values[gap] = EMPTY;
+    }
+
+    private void move(int from, int to) {
+        if (keys == null) {
+            numberKeys[to] = numberKeys[from];
+        } else {
+            keys[to] = keys[from];
+        }
+        hashes[to] = hashes[from];
+        values[to] = values[from];
+    }
+
+    private void grow() {
+        long[] oldNumberKeys = numberKeys;
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        allocate(oldValues.length * 2);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == EMPTY)
+                continue;
+            Object key = oldKeys != null ? oldKeys[i] : (Object) Double.longBitsToDouble(oldNumberKeys[i]);
+            insert(key, oldHashes[i], oldValues[i]);
+        }
+    }
+
+    /* Box the keys, so they can be anything from now on. A number's hash doesn't change. */
+    private void generalize() {
+        keys = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != EMPTY)
+                keys[i] = Double.longBitsToDouble(numberKeys[i]);
+        }
+        numberKeys = null;
+    }
+
+    /* Every key and its value, nil first if it's a key. */
+    void forEach(BiConsumer<Object, Object> action) {
+        if (hasNilKey)
+            action.accept(null, nilValue);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == EMPTY)
+                continue;
+            action.accept(keys != null ? keys[i] : (Object) Double.longBitsToDouble(numberKeys[i]), values[i]);
+        }
+    }
+
+    /* The bytes the table takes up. For the heap census. */
+    long storageBytes() {
+        int capacity = values.length;
+        long keyBytes = keys != null ? 4L * capacity : 8L * capacity;
+        return 3 * 16 + keyBytes + 4L * capacity + 4L * capacity;
+    }
+
+    @Override
+    public int arity(String method) {
+        switch (method) {
+            case "size":
+            case "keys":
+            case "values":
+                return 0;
+            case "get":
+            case "has":
+            case "delete":
+                return 1;
+            case "set":
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Object call(Token method, List<Object> arguments) {
+        switch (method.lexeme) {
+            case "get":
+                return get(arguments.get(0));
+            case "set":
+                set(arguments.get(0), arguments.get(1));
+                return arguments.get(1);
+            case "has":
+                return has(arguments.get(0));
+            case "delete":
+                return delete(arguments.get(0));
+            case "size":
+                return (double) size();
+            case "keys": {
+                LoxArray keys = new LoxArray();
+                forEach((key, value) -> keys.push(key));
+                return keys;
+            }
+            case "values": {
+                LoxArray values = new LoxArray();
+                forEach((key, value) -> values.push(value));
+                return values;
+            }
+            default:
+                // arity() said there's no such method
+                throw new IllegalArgumentException(method.lexeme);
+        }
+    }
+
+    /* Format the map as print does. A map inside itself prints as {...}. */
+    void appendTo(StringBuilder text, Set<Object> enclosing) {
+        if (!enclosing.add(this)) {
+            text.append("{...}");
+            return;
+        }
+        text.append('{');
+        boolean[] first = { true };
+        forEach((key, value) -> {
+            if (!first[0])
+                text.append(", ");
+            first[0] = false;
+            Interpreter.stringify(text, key, enclosing);
+            text.append(": ");
+            Interpreter.stringify(text, value, enclosing);
+        });
+        text.append('}');
+        enclosing.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        appendTo(text, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return text.toString();
+    }
+}
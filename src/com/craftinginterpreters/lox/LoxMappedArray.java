@@ -0,0 +1,211 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A file of numbers mapped into memory, made with MappedArray(path, type).
+ * The type is "double" (8 byte doubles) or "int" (4 byte signed ints), both
+ * little endian, as numpy and most machines write them. Bytes past the last
+ * whole number are ignored.
+ *
+ * Nothing is copied onto the heap: reads and writes go straight to the page
+ * cache, so a script can work through files larger than the heap. A buffer
+ * can only map 2GB, so the file is mapped in 1GB segments.
+ *
+ * array.get(i), array.set(i, number) (written back to the file), array.length(),
+ * array.sum(), array.min() and array.max() (nil if empty) and array.flush(),
+ * which forces writes out to the disk. Files that can't be written are
+ * mapped read only, and set() fails on them.
+ */
+class LoxMappedArray implements NativeObject {
+    private static final int SEGMENT_SHIFT = 30; // 1GB segments
+
+    private final String path;
+    private final boolean doubles; // Or ints
+    private final int elementShift; // log2 of an element's bytes
+    private final int indexShift; // log2 of the elements in a full segment
+    private final long length;
+    private final boolean writable;
+    private final MappedByteBuffer[] segments;
+
+    private LoxMappedArray(String path, boolean doubles, long length, boolean writable,
+            MappedByteBuffer[] segments) {
+        this.path = path;
+        this.doubles = doubles;
+        this.elementShift = doubles ? 3 : 2;
+        this.indexShift = SEGMENT_SHIFT - elementShift;
+        this.length = length;
+        this.writable = writable;
+        this.segments = segments;
+    }
+
+    /* Map a file, read write if it can be written. */
+    static LoxMappedArray map(Object pathValue, Object typeValue, Path directory) {
+        String path = StringView.asString(pathValue);
+        String type = StringView.asString(typeValue);
+        if (path == null)
+            throw new NativeError("Path must be a string.");
+        if (!"double".equals(type) && !"int".equals(type))
+            throw new NativeError("Type must be \"double\" or \"int\".");
+        boolean doubles = type.equals("double");
+
+        Path file = LoxFile.resolve(directory, path);
+        boolean writable = Files.isWritable(file);
+        try (FileChannel channel = writable
+                ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size() >> (doubles ? 3 : 2);
+            long bytes = length << (doubles ? 3 : 2);
+            int count = (int) ((bytes + (1L << SEGMENT_SHIFT) - 1) >> SEGMENT_SHIFT);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                // The mapping stays valid after the channel is closed
+                segments[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(bytes - start, 1L << SEGMENT_SHIFT));
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new LoxMappedArray(path, doubles, length, writable, segments);
+        } catch (IOException e) {
+            throw new NativeError("Could not map '" + path + "'.");
+        }
+    }
+
+    double get(long index) {
+        ByteBuffer segment = segments[(int) (index >>> indexShift)];
+        int offset = (int) (index & ((1L << indexShift) - 1)) << elementShift;
+        return doubles ? segment.getDouble(offset) : segment.getInt(offset);
+    }
+
+    private void set(long index, double value) {
+        ByteBuffer segment = segments[(int) (index >>> indexShift)];
+        int offset = (int) (index & ((1L << indexShift) - 1)) << elementShift;
+        if (doubles) {
+            segment.putDouble(offset, value);
+        } else {
+            segment.putInt(offset, (int) value);
+        }
+    }
+
+    /* Four running totals, like NumberArrays.sum(), over one segment at a time. */
+    private double sum() {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (ByteBuffer segment : segments) {
+            int end = segment.limit();
+            int step = 1 << elementShift;
+            int i = 0;
+            for (; i + 3 * step < end; i += 4 * step) {
+                s0 += read(segment, i);
+                s1 += read(segment, i + step);
+                s2 += read(segment, i + 2 * step);
+                s3 += read(segment, i + 3 * step);
+            }
+            for (; i < end; i += step) {
+                s0 += read(segment, i);
+            }
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /* The smallest (or largest) number, or NaN if any is. There must be at least one. */
+    private double extreme(boolean max) {
+        double m = get(0);
+        for (ByteBuffer segment : segments) {
+            int end = segment.limit();
+            int step = 1 << elementShift;
+            for (int i = 0; i < end; i += step) {
+                m = max ? Math.max(m, read(segment, i)) : Math.min(m, read(segment, i));
+            }
+        }
+        return m;
+    }
+
+    private double read(ByteBuffer segment, int offset) {
+        return doubles ? segment.getDouble(offset) : segment.getInt(offset);
+    }
+
+    @Override
+    public int arity(String method) {
+        switch (method) {
+            case "length":
+            case "sum":
+            case "min":
+            case "max":
+            case "flush":
+                return 0;
+            case "get":
+                return 1;
+            case "set":
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Object call(Token method, List<Object> arguments) {
+        switch (method.lexeme) {
+            case "get":
+                return get(index(method, arguments.get(0)));
+            case "set":
+                long index = index(method, arguments.get(0));
+                set(index, value(method, arguments.get(1)));
+                return arguments.get(1);
+            case "length":
+                return (double) length;
+            case "sum":
+                return sum();
+            case "min":
+                return length == 0 ? null : (Object) extreme(false);
+            case "max":
+                return length == 0 ? null : (Object) extreme(true);
+            case "flush":
+                if (writable) {
+                    for (MappedByteBuffer segment : segments) {
+                        segment.force();
+                    }
+                }
+                return null;
+            default:
+                // arity() said there's no such method
+                throw new IllegalArgumentException(method.lexeme);
+        }
+    }
+
+    /* Check a value to store, which for an int array must fit in an int. */
+    private double value(Token method, Object value) {
+        if (!writable)
+            throw new RuntimeError(method, "Mapped file is read only.");
+        if (!(value instanceof Double))
+            throw new RuntimeError(method, "Operand must be a number.");
+        double number = (Double) value;
+        if (!doubles && (number != Math.floor(number) || number < Integer.MIN_VALUE || number > Integer.MAX_VALUE))
+            throw new RuntimeError(method, "Value must be a whole number that fits in an int.");
+        return number;
+    }
+
+    /* Check an index argument, which must be a whole number in bounds. */
+    private long index(Token method, Object index) {
+        if (!(index instanceof Double))
+            throw new RuntimeError(method, "Array index must be a number.");
+        double value = (Double) index;
+        if (value != Math.floor(value))
+            throw new RuntimeError(method, "Array index must be a whole number.");
+        if (value < 0 || value >= length)
+            throw new RuntimeError(method, "Array index out of bounds.");
+        return (long) value;
+    }
+
+    @Override
+    public String toString() {
+        return "<mapped " + (doubles ? "double" : "int") + " array " + path + ">";
+    }
+}
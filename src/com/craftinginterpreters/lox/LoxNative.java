@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a public Java method to expose to Lox as a native function, when its
+ * class or object is added to LoxNatives. The function is named after the
+ * method unless a name is given, e.g. @LoxNative("sqrt").
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface LoxNative {
+    String value() default "";
+}
@@ -0,0 +1,86 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Java methods to expose to Lox as native functions, defined as globals in
+ * every interpreter that runs with them.
+ *
+ * <pre>
+ * LoxNatives natives = LoxNatives.discover(); // From plugins on the class path
+ * natives.add(MathNatives.class);             // Its @LoxNative static methods
+ * LoxEngine engine = new LoxEngine(false, false, null, natives);
+ * </pre>
+ *
+ * Parameters can be double, int, long, boolean, String, CharSequence or
+ * Object (any Lox value). Numbers are unboxed straight into primitive
+ * parameters, and results of any numeric type come back as Lox numbers.
+ * Other results, e.g. a Java object, are passed around Lox as they are, and
+ * can be given back to natives that take their type.
+ *
+ * Each method is adapted to Lox once, when it's added, so calls don't use
+ * reflection. Add natives before running scripts with them.
+ */
+public final class LoxNatives {
+    private final Map<String, JavaNative> natives = new LinkedHashMap<>();
+
+    /* Natives from every plugin ServiceLoader finds. Nothing loads plugins unless asked to. */
+    public static LoxNatives discover() {
+        LoxNatives natives = new LoxNatives();
+        for (LoxPlugin plugin : ServiceLoader.load(LoxPlugin.class)) {
+            plugin.register(natives);
+        }
+        return natives;
+    }
+
+    /* A class's @LoxNative static methods. */
+    public LoxNatives add(Class<?> type) {
+        for (Method method : type.getMethods()) {
+            if (method.isAnnotationPresent(LoxNative.class) && Modifier.isStatic(method.getModifiers()))
+                add(method, null);
+        }
+        return this;
+    }
+
+    /* An object's @LoxNative methods, called on the object, and its class's static ones. */
+    public LoxNatives add(Object target) {
+        for (Method method : target.getClass().getMethods()) {
+            if (method.isAnnotationPresent(LoxNative.class))
+                add(method, Modifier.isStatic(method.getModifiers()) ? null : target);
+        }
+        return this;
+    }
+
+    /* Any method handle, e.g. one made with MethodHandles.Lookup. */
+    public LoxNatives add(String name, MethodHandle handle) {
+        natives.put(name, new JavaNative(name, handle));
+        return this;
+    }
+
+    private void add(Method method, Object target) {
+        String name = method.getAnnotation(LoxNative.class).value();
+        if (name.isEmpty())
+            name = method.getName();
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            // A public method of a class that isn't
+            throw new IllegalArgumentException("Can't access " + method + ".", e);
+        }
+        add(name, target == null ? handle : handle.bindTo(target));
+    }
+
+    List<JavaNative> natives() {
+        return Collections.unmodifiableList(new ArrayList<>(natives.values()));
+    }
+}
@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A library of natives in a jar of its own. Plugins are found with
+ * ServiceLoader: list the class in
+ * META-INF/services/com.craftinginterpreters.lox.LoxPlugin, put the jar on the
+ * class path, and run with --plugins (or give an engine LoxNatives.discover())
+ * for scripts to be able to call its natives.
+ */
+public interface LoxPlugin {
+    void register(LoxNatives natives);
+}
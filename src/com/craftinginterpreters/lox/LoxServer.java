@@ -0,0 +1,319 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a warmed-up JVM around to run scripts for LoxClient, so a short script
+ * doesn't pay for starting (and JIT-compiling) a new JVM every time.
+ *
+ * The server only listens on the loopback interface. Scripts can read and
+ * write files, so other users of the machine mustn't be able to run them: at
+ * startup the server writes a random token to a file only its user can read
+ * (see tokenFile()), and refuses requests that don't start with it. Each
+ * connection carries one request, run on a fixed pool of worker threads.
+ * Scripts are compiled once and reused until one of their files changes, and
+ * every run gets fresh globals.
+ *
+ * Protocol: the client sends the token, a command ("run" or "stats") and, for
+ * "run", the script's absolute path and the client's working directory, which
+ * the script's relative file paths are resolved against, all as DataOutput
+ * UTF strings. The server answers
+ * with frames: a kind byte, then for STDOUT and STDERR an int length and that
+ * many bytes, and for EXIT an int exit code, which is always the last frame.
+ */
+class LoxServer {
+    static final int DEFAULT_PORT = 7420;
+
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    static final int BAD_TOKEN = 77; // The exit code when the token is wrong, like sysexits' EX_NOPERM
+
+    private final int port;
+    private final boolean fused;
+    private final boolean lazy;
+    private final Path cacheDirectory; // For the on-disk cache, or null
+    private final LoxNatives natives;
+    private final ThreadPoolExecutor workers;
+    private byte[] token; // What clients must send, once the server is listening
+
+    private final Map<Path, Compiled> scripts = new ConcurrentHashMap<>();
+
+    // Counters for the "stats" command
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong(); // Scripts that exited with an error
+    private final AtomicLong compiles = new AtomicLong();
+    private final Latencies latencies = new Latencies(4096);
+
+    LoxServer(int port, int threads, boolean fused, boolean lazy, Path cacheDirectory, LoxNatives natives) {
+        this.port = port;
+        this.fused = fused;
+        this.lazy = lazy;
+        this.cacheDirectory = cacheDirectory;
+        this.natives = natives;
+        this.workers = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+    }
+
+    /* Accept requests until the process is killed. */
+    void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            // Only once the port is ours, so a second server can't replace the first's token
+            Path tokenFile = tokenFile(port);
+            token = writeToken(tokenFile);
+            System.err.println("jlox server listening on " + server.getLocalSocketAddress() + " with "
+                    + workers.getMaximumPoolSize() + " threads");
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.err.print(stats());
+                try {
+                    Files.deleteIfExists(tokenFile);
+                } catch (IOException e) {
+                    // It's useless without the server anyway
+                }
+            }));
+
+            for (;;) {
+                Socket socket = server.accept();
+                workers.execute(() -> handle(socket));
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            // Compared in constant time, so timing doesn't give it away a byte at a time
+            if (!MessageDigest.isEqual(in.readUTF().getBytes(StandardCharsets.UTF_8), token)) {
+                writeFrame(out, STDERR, "Bad token.\n".getBytes(StandardCharsets.UTF_8));
+                writeExit(out, BAD_TOKEN);
+                return;
+            }
+
+            String command = in.readUTF();
+            if (command.equals("run")) {
+                Path path = Paths.get(in.readUTF());
+                run(path, Paths.get(in.readUTF()), out);
+            } else if (command.equals("stats")) {
+                writeFrame(out, STDOUT, stats().getBytes(StandardCharsets.UTF_8));
+                writeExit(out, 0);
+            } else {
+                writeFrame(out, STDERR, ("Unknown command '" + command + "'.\n").getBytes(StandardCharsets.UTF_8));
+                writeExit(out, 64);
+            }
+        } catch (IOException e) {
+            // The client went away; there's nobody to tell
+        }
+    }
+
+    private void run(Path path, Path workingDirectory, DataOutputStream out) throws IOException {
+        long start = System.nanoTime();
+        requests.incrementAndGet();
+
+        // Output is sent in large frames, but never held back for long
+        OutputSink stdout = new ChannelOutputSink(Channels.newChannel(new FrameOutputStream(out, STDOUT)),
+                Charset.defaultCharset(), ChannelOutputSink.Flush.PERIODICALLY);
+        PrintStream stderr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, STDERR)), true);
+        int code;
+        try {
+            Compiled compiled = compile(path);
+            ExecutionResult result = compiled.engine.execute(compiled.script, stdout, workingDirectory);
+            for (LoxError error : result.errors()) {
+                stderr.println(error);
+            }
+            code = result.exitCode();
+        } catch (IOException e) {
+            stderr.println("Can't read '" + path + "'.");
+            code = 66;
+        } catch (Throwable e) {
+            // A bug in the interpreter, or a script that ran it out of memory: this
+            // request fails, and the client hears why instead of being hung up on
+            stderr.println("Internal error: " + e);
+            code = 70;
+        }
+
+        stdout.flush();
+        stderr.flush();
+        if (code != 0)
+            failed.incrementAndGet();
+        latencies.add(System.nanoTime() - start);
+        writeExit(out, code);
+    }
+
+    /* Where the token for the server on a port is: in $XDG_RUNTIME_DIR, or else ~/.jlox. */
+    static Path tokenFile(int port) {
+        String dir = System.getenv("XDG_RUNTIME_DIR");
+        Path directory = dir != null && !dir.isEmpty() ? Paths.get(dir)
+                : Paths.get(System.getProperty("user.home"), ".jlox");
+        return directory.resolve("jlox-server-" + port + ".token");
+    }
+
+    /* Make a new token and write it to a file that's readable by this user only. */
+    private static byte[] writeToken(Path file) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            if (!Files.isDirectory(file.getParent()))
+                Files.createDirectories(file.getParent(),
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            // A fresh file, made private before the token goes in it
+            Files.deleteIfExists(file);
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            // Elsewhere, the user's own directories are private already
+            Files.createDirectories(file.getParent());
+        }
+        Files.write(file, token.toString().getBytes(StandardCharsets.UTF_8));
+        return token.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /* The compiled script, reusing the last compilation if none of its files changed. */
+    private Compiled compile(Path path) throws IOException {
+        Compiled compiled = scripts.get(path);
+        if (compiled != null && !compiled.engine.isStale())
+            return compiled;
+
+        // Two requests may compile the same script at once; the last one wins.
+        LoxEngine engine = new LoxEngine(fused, lazy, cacheDirectory, natives);
+        CompiledScript script = engine.compile(path);
+        compiles.incrementAndGet();
+        compiled = new Compiled(engine, script);
+        // Scripts with errors aren't kept, since a missing import may show up later
+        if (script.hasErrors()) {
+            scripts.remove(path);
+        } else {
+            scripts.put(path, compiled);
+        }
+        return compiled;
+    }
+
+    private static class Compiled {
+        final LoxEngine engine; // One per script, so it can be recompiled on its own
+        final CompiledScript script;
+
+        Compiled(LoxEngine engine, CompiledScript script) {
+            this.engine = engine;
+            this.script = script;
+        }
+    }
+
+    String stats() {
+        long[] sorted = latencies.sorted();
+        return "requests: " + requests.get() + " (" + failed.get() + " failed), compiles: " + compiles.get() + "\n"
+                + "threads: " + workers.getMaximumPoolSize() + ", busy: " + workers.getActiveCount()
+                + ", queued: " + workers.getQueue().size() + "\n"
+                + "latency over the last " + sorted.length + " runs:"
+                + " p50 " + millis(percentile(sorted, 50))
+                + " p90 " + millis(percentile(sorted, 90))
+                + " p99 " + millis(percentile(sorted, 99))
+                + " max " + millis(percentile(sorted, 100)) + "\n";
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1e6);
+    }
+
+    /* The most recent latencies, in a ring buffer. */
+    private static class Latencies {
+        private final long[] nanos;
+        private int next = 0;
+        private int count = 0;
+
+        Latencies(int capacity) {
+            this.nanos = new long[capacity];
+        }
+
+        synchronized void add(long latency) {
+            nanos[next] = latency;
+            next = (next + 1) % nanos.length;
+            count = Math.min(count + 1, nanos.length);
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(nanos, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    private static void writeFrame(DataOutputStream out, byte kind, byte[] bytes, int offset, int length)
+            throws IOException {
+        // stdout and stderr share the connection
+        synchronized (out) {
+            out.writeByte(kind);
+            out.writeInt(length);
+            out.write(bytes, offset, length);
+            out.flush();
+        }
+    }
+
+    private static void writeFrame(DataOutputStream out, byte kind, byte[] bytes) throws IOException {
+        writeFrame(out, kind, bytes, 0, bytes.length);
+    }
+
+    private static void writeExit(DataOutputStream out, int code) throws IOException {
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(code);
+            out.flush();
+        }
+    }
+
+    /* Sends everything written to it as frames of one kind. */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte kind;
+
+        FrameOutputStream(DataOutputStream out, byte kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            writeFrame(out, kind, bytes, offset, length);
+        }
+    }
+}
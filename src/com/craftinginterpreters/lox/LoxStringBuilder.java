@@ -0,0 +1,57 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * Lox's built-in StringBuilder, for building a string a piece at a time
+ * without copying it all again on every +.
+ *
+ * builder.append(value) (formatted as print does; returns the builder, so
+ * appends can be chained), builder.length() and builder.toString().
+ */
+class LoxStringBuilder implements NativeObject {
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public int arity(String method) {
+        switch (method) {
+            case "length":
+            case "toString":
+                return 0;
+            case "append":
+                return 1;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Object call(Token method, List<Object> arguments) {
+        switch (method.lexeme) {
+            case "append":
+                Object value = arguments.get(0);
+                if (value instanceof String) {
+                    text.append((String) value);
+                } else if (value instanceof Double) {
+                    NumberFormatter.append(text, (Double) value);
+                } else if (value instanceof StringView) {
+                    ((StringView) value).appendTo(text);
+                } else {
+                    text.append(Interpreter.stringify(value));
+                }
+                return this;
+            case "length":
+                return (double) text.length();
+            case "toString":
+                return text.toString();
+            default:
+                // arity() said there's no such method
+                throw new IllegalArgumentException(method.lexeme);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
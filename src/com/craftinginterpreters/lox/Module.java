@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled source file: its statements, plus the depths the resolver found for
+ * its local variables. Every function remembers the module it was declared in,
+ * so the interpreter always looks up depths in the right module.
+ */
+class Module {
+    final Path path; // null for code that didn't come from a file, like REPL input
+    final List<Stmt> statements;
+    final Map<Expr, Integer> locals;
+    // Top-level imports, loaded up front. Imports anywhere else are loaded when run.
+    final List<Stmt.Import> imports = new ArrayList<>();
+
+    Module(Path path, List<Stmt> statements, Map<Expr, Integer> locals) {
+        this.path = path;
+        this.statements = statements;
+        this.locals = locals;
+
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) {
+                imports.add((Stmt.Import) statement);
+            }
+        }
+    }
+
+    /* The file an import statement refers to, relative to this module's directory. */
+    Path resolve(Stmt.Import stmt) {
+        Path directory = path != null ? path.getParent() : Paths.get("");
+        return directory.resolve((String) stmt.path.literal).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public String toString() {
+        return path == null ? "<script>" : path.toString();
+    }
+}
@@ -0,0 +1,251 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compiles source files into modules and keeps every module it compiled, so
+ * importing the same file again costs nothing.
+ *
+ * Each module is scanned, parsed and resolved on its own, so a program's whole
+ * import graph is compiled in parallel on the common fork-join pool. A loader
+ * can be shared by interpreters on different threads.
+ */
+class ModuleLoader {
+    private final boolean fused;
+    private final boolean lazy;
+    private final ProgramCache cache; // Optional on-disk cache of compiled programs
+    private final PrintStream diagnostics; // Where to print tokens, trees and cache hits, or null
+
+    private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+    // When each file was last modified, as of compiling it
+    private final Map<Path, FileTime> modified = new ConcurrentHashMap<>();
+
+    ModuleLoader(boolean fused, boolean lazy, ProgramCache cache, PrintStream diagnostics) {
+        this.fused = fused;
+        this.lazy = lazy;
+        this.cache = cache;
+        this.diagnostics = diagnostics;
+    }
+
+    /*
+     * Compile a program and everything it imports. The path is where the source
+     * came from, or null for REPL input. Returns null if there were errors, which
+     * have been reported.
+     */
+    Module load(Path path, String source, ErrorReporter reporter) {
+        if (path != null)
+            path = path.toAbsolutePath().normalize();
+
+        Module module = compile(path, source, reporter);
+        if (module == null)
+            return null;
+        if (path != null)
+            modules.put(path, module);
+
+        if (module.imports.isEmpty())
+            return module;
+        Graph graph = new Graph(reporter);
+        // The program itself is part of the graph, so it's dropped too if an import fails
+        if (path != null)
+            graph.claimed.add(path);
+        return loadGraph(new LoadTask(module, graph)) ? module : null;
+    }
+
+    /*
+     * The module an import statement refers to, compiling it now if it hasn't been
+     * loaded up front. Returns null if there were errors.
+     */
+    Module load(Module importer, Stmt.Import stmt, ErrorReporter reporter) {
+        Path path = importer.resolve(stmt);
+        Module module = modules.get(path);
+        if (module != null)
+            return module;
+
+        Graph graph = new Graph(reporter);
+        graph.claimed.add(path);
+        if (!loadGraph(new LoadTask(path, stmt, graph)))
+            return null;
+        return modules.get(path);
+    }
+
+    /* Whether any file this loader compiled has changed (or gone) since. */
+    boolean isStale() {
+        for (Map.Entry<Path, FileTime> entry : modified.entrySet()) {
+            try {
+                if (!Files.getLastModifiedTime(entry.getKey()).equals(entry.getValue()))
+                    return true;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean loadGraph(LoadTask root) {
+        ForkJoinPool.commonPool().invoke(root);
+        if (root.graph.failed.get()) {
+            // Don't keep half a graph; it's all recompiled if imported again, e.g. after
+            // fixing the broken file in the REPL.
+            for (Path path : root.graph.claimed) {
+                modules.remove(path);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /* What the tasks loading one import graph share. */
+    private static class Graph {
+        final ErrorReporter reporter;
+        final Set<Path> claimed = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Graph(ErrorReporter reporter) {
+            this.reporter = reporter;
+        }
+    }
+
+    /**
+     * Compiles one module (unless it's already compiled), then the modules it
+     * imports, in parallel. Each path is claimed by exactly one task, so shared
+     * and circular imports are only compiled once, and no task ever waits on
+     * anything but its own children.
+     */
+    private class LoadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path path;
+        private final Stmt.Import importedBy;
+        private final Graph graph;
+        private Module module;
+
+        LoadTask(Module module, Graph graph) {
+            this.path = module.path;
+            this.importedBy = null;
+            this.graph = graph;
+            this.module = module;
+        }
+
+        LoadTask(Path path, Stmt.Import importedBy, Graph graph) {
+            this.path = path;
+            this.importedBy = importedBy;
+            this.graph = graph;
+        }
+
+        @Override
+        protected void compute() {
+            if (module == null) {
+                module = compile(path, importedBy, graph.reporter);
+                if (module == null) {
+                    graph.failed.set(true);
+                    return;
+                }
+                modules.put(path, module);
+            }
+
+            List<LoadTask> children = new ArrayList<>();
+            for (Stmt.Import stmt : module.imports) {
+                Path imported = module.resolve(stmt);
+                if (!modules.containsKey(imported) && graph.claimed.add(imported)) {
+                    children.add(new LoadTask(imported, stmt, graph));
+                }
+            }
+            invokeAll(children);
+        }
+    }
+
+    private Module compile(Path path, Stmt.Import importedBy, ErrorReporter reporter) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        } catch (IOException e) {
+            reporter.error(importedBy.path, "Can't read module '" + importedBy.path.literal + "'.");
+            return null;
+        }
+        return compile(path, source, reporter);
+    }
+
+    /* Scan, parse and resolve one source file, or load it from the on-disk cache. */
+    private Module compile(Path path, String source, ErrorReporter reporter) {
+        if (path != null) {
+            try {
+                modified.put(path, Files.getLastModifiedTime(path));
+            } catch (IOException e) {
+                // Not a real file (or not anymore); there's nothing to watch
+            }
+        }
+
+        if (cache != null) {
+            Object event = LoxEvents.beginCompile();
+            Module cached = cache.load(path, source);
+            if (cached != null) {
+                LoxEvents.commitCompile(event, "cache", path, source);
+                if (diagnostics != null)
+                    diagnostics.println("[cache] loaded compiled program for " + cached);
+                return cached;
+            }
+        }
+
+        Object event = LoxEvents.beginCompile();
+        Scanner scanner = new Scanner(source, reporter);
+        List<Token> tokens = scanner.scanTokens();
+        LoxEvents.commitCompile(event, "scan", path, source);
+
+        if (diagnostics != null) {
+            for (Token token : tokens) {
+                diagnostics.println("[scanner] token: " + token);
+            }
+        }
+
+        // In fused mode the parser resolves variables itself, so there's no separate
+        // resolver pass over the tree. Code that didn't even scan is only checked for
+        // syntax errors.
+        // Lazy bodies add their locals while the program runs, possibly on several
+        // threads at once.
+        Map<Expr, Integer> locals = lazy ? new ConcurrentHashMap<>() : new HashMap<>();
+        Parser parser = fused && !scanner.hadError()
+                ? new Parser(tokens, reporter, locals, lazy)
+                : new Parser(tokens, reporter);
+        event = LoxEvents.beginCompile();
+        List<Stmt> statements = parser.parse();
+        LoxEvents.commitCompile(event, "parse", path, source);
+
+        // Stop if there was a syntax error (or, when fused, a resolution error)
+        if (scanner.hadError() || parser.hadError())
+            return null;
+
+        if (diagnostics != null)
+            new AstPrinter().print(statements, diagnostics);
+
+        if (!fused) {
+            event = LoxEvents.beginCompile();
+            Resolver resolver = new Resolver(locals, reporter);
+            resolver.resolve(statements);
+            LoxEvents.commitCompile(event, "resolve", path, source);
+
+            // Stop if there was a resolution error
+            if (resolver.hadError())
+                return null;
+        }
+
+        Module module = new Module(path, statements, locals);
+        // Storing would force every lazy function body to be parsed
+        if (cache != null && !lazy)
+            cache.store(source, module);
+        return module;
+    }
+}
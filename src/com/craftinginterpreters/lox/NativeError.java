@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A runtime error thrown by a native function, which doesn't know where it was
+ * called from. The interpreter turns it into a RuntimeError at the call.
+ */
+class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message);
+    }
+}
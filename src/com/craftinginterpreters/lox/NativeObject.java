@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * An instance of a built-in class, like Array, whose methods are written in
+ * Java. The interpreter calls them directly for a call like array.push(1);
+ * getting a method without calling it makes a BoundNative.
+ */
+interface NativeObject {
+    /* The number of arguments the method takes, or -1 if there's no such method. */
+    int arity(String method);
+
+    /* Call a method that exists, with the right number of arguments. */
+    Object call(Token method, List<Object> arguments);
+
+    /* A native method taken from its object, e.g. var push = array.push; */
+    class BoundNative implements LoxCallable {
+        private final NativeObject object;
+        private final Token method;
+
+        BoundNative(NativeObject object, Token method) {
+            this.object = object;
+            this.method = method;
+        }
+
+        @Override
+        public int arity() {
+            return object.arity(method.lexeme);
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return object.call(method, arguments);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Bulk operations on the first n numbers of double arrays, for the numeric
+ * methods of Array. They run as tight loops in Java instead of one boxed
+ * number at a time in the interpreter.
+ *
+ * The elementwise loops are simple enough for the JIT to vectorize. It won't
+ * vectorize a floating point reduction, since that changes the order of the
+ * additions, so the reductions keep four sums going at once instead. Like any
+ * SIMD sum, that can differ from adding left to right in the last few bits.
+ */
+class NumberArrays {
+    static double sum(double[] a, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static double dot(double[] a, double[] b, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /* The smallest number, or NaN if any is. n must be at least 1. */
+    static double min(double[] a, int n) {
+        double m = a[0];
+        for (int i = 1; i < n; i++) {
+            m = Math.min(m, a[i]);
+        }
+        return m;
+    }
+
+    static double max(double[] a, int n) {
+        double m = a[0];
+        for (int i = 1; i < n; i++) {
+            m = Math.max(m, a[i]);
+        }
+        return m;
+    }
+
+    static double[] add(double[] a, double[] b, int n) {
+        double[] result = new double[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = a[i] + b[i];
+        }
+        return result;
+    }
+
+    static double[] multiply(double[] a, double[] b, int n) {
+        double[] result = new double[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = a[i] * b[i];
+        }
+        return result;
+    }
+
+    static double[] scale(double[] a, double factor, int n) {
+        double[] result = new double[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = a[i] * factor;
+        }
+        return result;
+    }
+
+    /* Running totals: result[i] is the sum of a[0] to a[i]. */
+    static double[] prefixSum(double[] a, int n) {
+        double[] result = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a[i];
+            result[i] = sum;
+        }
+        return result;
+    }
+
+    /*
+     * The numbers for which "number operator operand" is true, compacted into
+     * the start of a new array. Returns how many there are in count[0].
+     */
+    static double[] filter(double[] a, int n, String operator, double operand, int[] count) {
+        double[] result = new double[n];
+        int kept = 0;
+        // One loop per operator, so the comparison isn't chosen again for every number
+        switch (operator) {
+            case "<":
+                for (int i = 0; i < n; i++) {
+                    result[kept] = a[i];
+                    kept += a[i] < operand ? 1 : 0;
+                }
+                break;
+            case "<=":
+                for (int i = 0; i < n; i++) {
+                    result[kept] = a[i];
+                    kept += a[i] <= operand ? 1 : 0;
+                }
+                break;
+            case ">":
+                for (int i = 0; i < n; i++) {
+                    result[kept] = a[i];
+                    kept += a[i] > operand ? 1 : 0;
+                }
+                break;
+            case ">=":
+                for (int i = 0; i < n; i++) {
+                    result[kept] = a[i];
+                    kept += a[i] >= operand ? 1 : 0;
+                }
+                break;
+            case "==":
+                // Lox's == on numbers is Double.equals(), which differs from Java's for NaN and -0
+                long bits = Double.doubleToLongBits(operand);
+                for (int i = 0; i < n; i++) {
+                    result[kept] = a[i];
+                    kept += Double.doubleToLongBits(a[i]) == bits ? 1 : 0;
+                }
+                break;
+            case "!=":
+                long other = Double.doubleToLongBits(operand);
+                for (int i = 0; i < n; i++) {
+                    result[kept] = a[i];
+                    kept += Double.doubleToLongBits(a[i]) != other ? 1 : 0;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(operator);
+        }
+        count[0] = kept;
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formats numbers the way Lox prints them: like Double.toString(), but without
+ * the ".0" on whole numbers.
+ *
+ * Double.toString() only writes whole numbers as plain digits below 10^7 (after
+ * that it's 1.0E7), so those are written straight from the digits of the long,
+ * without making a string to trim. Everything else still goes through
+ * Double.toString(), so the output doesn't change.
+ */
+class NumberFormatter {
+    private static final double PLAIN_LIMIT = 1e7;
+    private static final int MAX_PLAIN_LENGTH = 8; // "-9999999"
+
+    /* Whether the number prints as a plain integer, so it can be formatted from a long. */
+    private static boolean isPlainInteger(double value) {
+        // NaN fails the comparisons. -0.0 has to keep its sign, which a long can't.
+        return value > -PLAIN_LIMIT && value < PLAIN_LIMIT && value == (long) value
+                && Double.doubleToRawLongBits(value) != Long.MIN_VALUE;
+    }
+
+    static String format(double value) {
+        if (isPlainInteger(value))
+            return Long.toString((long) value);
+        return formatSlowly(value);
+    }
+
+    static void append(StringBuilder builder, double value) {
+        if (isPlainInteger(value)) {
+            builder.append((long) value);
+        } else {
+            builder.append(formatSlowly(value));
+        }
+    }
+
+    /*
+     * Write the number into the buffer as ASCII. Returns false, having written
+     * nothing, if it isn't a plain integer or there isn't room.
+     */
+    static boolean write(ByteBuffer buffer, double value) {
+        if (!isPlainInteger(value) || buffer.remaining() < MAX_PLAIN_LENGTH)
+            return false;
+
+        long n = (long) value;
+        if (n < 0) {
+            buffer.put((byte) '-');
+            n = -n;
+        }
+        // Digits come out last first, so count them and fill in from the end
+        int digits = 1;
+        for (long rest = n / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + n % 10));
+            n /= 10;
+        }
+        buffer.position(end);
+        return true;
+    }
+
+    private static String formatSlowly(double value) {
+        String text = Double.toString(value);
+        if (text.endsWith(".0"))
+            return text.substring(0, text.length() - 2);
+        return text;
+    }
+}
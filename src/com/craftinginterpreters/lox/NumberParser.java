@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Parses numbers written the way Lox and JSON write them, e.g. "12", "-0.5" or
+ * "1e3", for toNumber() and the JSON reader. Unlike Double.parseDouble(),
+ * nothing else is allowed: no spaces, "NaN", hex or type suffixes.
+ *
+ * Most numbers are small whole ones, so those are added up from their digits
+ * as a long. Everything else still goes through Double.parseDouble(), so the
+ * results don't change.
+ */
+class NumberParser {
+    /* The number, or NaN if the text isn't one. No number is written as NaN. */
+    static double parse(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        if (i < length && text.charAt(i) == '-')
+            i++;
+        int digitsStart = i;
+        long whole = 0;
+        while (i < length && isDigit(text.charAt(i))) {
+            whole = whole * 10 + (text.charAt(i) - '0');
+            i++;
+        }
+        int digits = i - digitsStart;
+        if (digits == 0)
+            return Double.NaN;
+        boolean simple = true;
+        if (i < length && text.charAt(i) == '.') {
+            simple = false;
+            i++;
+            int fractionStart = i;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == fractionStart)
+                return Double.NaN;
+        }
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            simple = false;
+            i++;
+            if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-'))
+                i++;
+            int exponentStart = i;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == exponentStart)
+                return Double.NaN;
+        }
+        if (i != length)
+            return Double.NaN;
+
+        // Up to 15 digits are exact in a long and a double, so the slow parse isn't
+        // needed. -0 is still -0.
+        if (simple && digits <= 15)
+            return digitsStart == 1 ? -(double) whole : (double) whole;
+        return Double.parseDouble(text.toString());
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
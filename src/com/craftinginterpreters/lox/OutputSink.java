@@ -0,0 +1,47 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Where a script's print statements go. Embedders can pass their own to
+ * LoxEngine.execute() to capture a script's output.
+ *
+ * A sink may buffer what it's given until flush(), which the engine calls when
+ * the script finishes.
+ */
+public interface OutputSink {
+    void print(CharSequence text);
+
+    /* Print a line. Sinks that buffer can do this without a second call. */
+    default void println(CharSequence line) {
+        print(line);
+        print("\n");
+    }
+
+    /* Print a number on a line of its own, formatted as Lox prints numbers. */
+    default void println(double number) {
+        println(NumberFormatter.format(number));
+    }
+
+    void flush();
+
+    /* A sink that writes to a stream, e.g. System.out, line by line. */
+    static OutputSink of(PrintStream out) {
+        return new OutputSink() {
+            @Override
+            public void print(CharSequence text) {
+                out.append(text);
+            }
+
+            @Override
+            public void println(CharSequence line) {
+                out.println(line);
+            }
+
+            @Override
+            public void flush() {
+                out.flush();
+            }
+        };
+    }
+}
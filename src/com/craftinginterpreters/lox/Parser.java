@@ -2,19 +2,70 @@ package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.craftinginterpreters.lox.Resolver.ClassType;
+import com.craftinginterpreters.lox.Resolver.FunctionType;
 
 class Parser {
     private static class ParseError extends RuntimeException {
     }
 
+    /* A resolution error found while parsing, reported once parsing succeeded. */
+    private static class ResolveError {
+        final Token token;
+        final String message;
+
+        ResolveError(Token token, String message) {
+            this.token = token;
+            this.message = message;
+        }
+    }
+
     private final List<Token> tokens;
+    private final ErrorReporter reporter;
     private int current = 0;
+    private boolean hadError = false;
+
+    // Only set in fused mode, where the parser also does the Resolver's job: every
+    // declaration and variable reference is resolved as soon as its node is built,
+    // saving a second walk over the whole tree.
+    private final Map<Expr, Integer> locals;
+    private final Scopes scopes;
+    private FunctionType currentFunction;
+    private ClassType currentClass;
+    private final List<ResolveError> resolveErrors = new ArrayList<>();
+
+    // In lazy mode, function bodies are only skimmed for matching braces. They're
+    // parsed and resolved the first time they're needed (see LazyBody).
+    private final boolean lazy;
+
+    Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(tokens, reporter, null, false);
+    }
 
-    Parser(List<Token> tokens) {
+    /*
+     * Parse and resolve in a single pass, recording the depth of each local. Function
+     * bodies may be deferred, too.
+     */
+    Parser(List<Token> tokens, ErrorReporter reporter, Map<Expr, Integer> locals, boolean lazy) {
+        this(tokens, reporter, locals, lazy, new Scopes(), FunctionType.NONE, ClassType.NONE);
+    }
+
+    private Parser(List<Token> tokens, ErrorReporter reporter, Map<Expr, Integer> locals, boolean lazy,
+            Scopes scopes, FunctionType currentFunction, ClassType currentClass) {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.locals = locals;
+        this.lazy = lazy && locals != null;
+        this.scopes = scopes;
+        this.currentFunction = currentFunction;
+        this.currentClass = currentClass;
     }
 
     List<Stmt> parse() {
@@ -25,19 +76,43 @@ class Parser {
             statements.add(declaration());
         }
 
+        reportResolveErrors();
         return statements;
     }
 
+    /* Whether there were any syntax (or, when fused, resolution) errors. */
+    boolean hadError() {
+        return hadError;
+    }
+
+    private void reportResolveErrors() {
+        // Like the two-pass pipeline, resolution errors only matter for code that
+        // parsed cleanly.
+        if (hadError)
+            return;
+
+        for (ResolveError error : resolveErrors) {
+            hadError = true;
+            reporter.error(error.token, error.message);
+        }
+    }
+
     private Expr expression() {
         return assignment();
     }
 
     private Stmt declaration() {
+        int scopeDepth = scopes.depth();
+        FunctionType enclosingFunction = currentFunction;
+        ClassType enclosingClass = currentClass;
+
         try {
             if (match(CLASS))
                 return classDeclaration();
             if (match(FUN))
                 return function("function");
+            if (match(IMPORT))
+                return importDeclaration();
             if (match(VAR))
                 return varDeclaration();
 
@@ -45,6 +120,9 @@ class Parser {
         } catch (ParseError error) {
             // This method is repeatedly called when parsing a series of statements, so it's
             // a good place to synchronize when the parser goes into panic mode
+            scopes.truncate(scopeDepth);
+            currentFunction = enclosingFunction;
+            currentClass = enclosingClass;
             synchronize();
             return null;
         }
@@ -52,15 +130,32 @@ class Parser {
 
     private Stmt classDeclaration() {
         Token name = consume(IDENTIFIER, "Expected class name.");
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+        declare(name);
+        define(name);
 
         Expr.Variable superclass = null;
         if (match(LESS)) {
             consume(IDENTIFIER, "Expected superclass name.");
             superclass = new Expr.Variable(previous());
+
+            if (name.lexeme.equals(superclass.name.lexeme)) {
+                resolveError(superclass.name, "A class can't inherit from itself.");
+            }
+            currentClass = ClassType.SUBCLASS;
+            resolveLocal(superclass, superclass.name);
         }
 
         consume(LEFT_BRACE, "Expected '{' before class body.");
 
+        if (superclass != null) {
+            beginScope();
+            scopes.define("super");
+        }
+        beginScope();
+        scopes.define("this");
+
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             methods.add(function("method"));
@@ -68,9 +163,21 @@ class Parser {
 
         consume(RIGHT_BRACE, "Expected '}' after class body.");
 
+        endScope();
+        if (superclass != null)
+            endScope();
+        currentClass = enclosingClass;
+
         return new Stmt.Class(name, superclass, methods);
     }
 
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expected module path after 'import'.");
+        consume(SEMICOLON, "Expected ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private Stmt statement() {
         if (match(FOR))
             return forStatement();
@@ -82,8 +189,12 @@ class Parser {
             return returnStatement();
         if (match(WHILE))
             return whileStatement();
-        if (match(LEFT_BRACE))
-            return new Stmt.Block(block());
+        if (match(LEFT_BRACE)) {
+            beginScope();
+            List<Stmt> statements = block();
+            endScope();
+            return new Stmt.Block(statements);
+        }
 
         return expressionStatement();
     }
@@ -91,12 +202,16 @@ class Parser {
     private Stmt forStatement() {
         consume(LEFT_PAREN, "Expected '(' after 'for'.");
 
+        // The desugared loop below wraps an initializer and an increment in blocks of
+        // their own, so those scopes are opened here to match.
         Stmt initializer;
         if (match(SEMICOLON)) {
             initializer = null;
         } else if (match(VAR)) {
+            beginScope();
             initializer = varDeclaration();
         } else {
+            beginScope();
             initializer = expressionStatement();
         }
 
@@ -108,11 +223,16 @@ class Parser {
 
         Expr increment = null;
         if (!check(RIGHT_PAREN)) {
+            beginScope();
             increment = expression();
         }
         consume(RIGHT_PAREN, "Expected ')' after for clauses.");
 
         Stmt body = statement();
+        if (increment != null)
+            endScope();
+        if (initializer != null)
+            endScope();
 
         // "Desugar" a for loop into a while loop
 
@@ -160,9 +280,16 @@ class Parser {
 
     private Stmt returnStatement() {
         Token keyword = previous();
+        if (currentFunction == FunctionType.NONE) {
+            resolveError(keyword, "Can't return from top-level code.");
+        }
+
         Expr value = null;
         // If there is a value, we parse it. Otherwise return nil.
         if (!check(SEMICOLON)) {
+            if (currentFunction == FunctionType.INITIALIZER) {
+                resolveError(keyword, "Can't return a value from an initializer.");
+            }
             value = expression();
         }
 
@@ -174,6 +301,7 @@ class Parser {
         // At this point, the parser has already parsed VAR, so next we should have an
         // identifier with the variable name
         Token name = consume(IDENTIFIER, "Expected variable name.");
+        declare(name);
 
         // Initializers are optional. If nothing is provided we initialize with null.
         // Otherwise, we expect an expression
@@ -183,6 +311,7 @@ class Parser {
         }
 
         consume(SEMICOLON, "Expected ';' after variable declaration.");
+        define(name);
         return new Stmt.Var(name, initializer);
     }
 
@@ -207,6 +336,17 @@ class Parser {
     private Stmt.Function function(String kind) {
         // Parse name
         Token name = consume(IDENTIFIER, "Expected " + kind + " name.");
+        FunctionType type = FunctionType.FUNCTION;
+        if (kind.equals("method")) {
+            type = name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+        } else {
+            // Define the name before the body so the function can refer to itself
+            declare(name);
+            define(name);
+        }
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = type;
+        beginScope();
 
         // Parse parameters
         consume(LEFT_PAREN, "Expected '(' after " + kind + "name.");
@@ -217,18 +357,232 @@ class Parser {
                     error(peek(), "Can't have more than 255 parameters.");
                 }
 
-                parameters.add(
-                        consume(IDENTIFIER, "Expected parameter name."));
+                Token parameter = consume(IDENTIFIER, "Expected parameter name.");
+                declare(parameter);
+                define(parameter);
+                parameters.add(parameter);
             } while (match(COMMA));
         }
         consume(RIGHT_PAREN, "Expected ')' after parameters.");
 
-        // Parse body
+        // Parse body. It shares the parameters' scope.
         consume(LEFT_BRACE, "Expected '{' before " + kind + " body.");
-        List<Stmt> body = block();
+        List<Stmt> body;
+        if (lazy) {
+            int start = current;
+            skimBody(type);
+            body = new LazyBody(name, tokens.subList(start, current), locals,
+                    scopes.copy(), type, currentClass);
+        } else {
+            body = block();
+        }
+
+        endScope();
+        currentFunction = enclosingFunction;
         return new Stmt.Function(name, parameters, body);
     }
 
+    /* Where the skimmer was when it went into a class or function body. */
+    private static class SkimContext {
+        final ClassType currentClass;
+        final FunctionType currentFunction;
+        final boolean classBody;
+        final int depth;
+
+        SkimContext(ClassType currentClass, FunctionType currentFunction, boolean classBody, int depth) {
+            this.currentClass = currentClass;
+            this.currentFunction = currentFunction;
+            this.classBody = classBody;
+            this.depth = depth;
+        }
+    }
+
+    /*
+     * Skip to the end of a function body, checking that its braces are balanced.
+     * Errors that only depend on where something is written are reported now, as
+     * parsing the body would: 'this' and 'super' outside of a class, returning a
+     * value from an initializer and invalid assignment targets. Anything else wrong
+     * with the body is only found when it's first called.
+     */
+    private void skimBody(FunctionType type) {
+        // The innermost class and function, whether that's straight inside a class body,
+        // and the depth its body started at. Most bodies never need the stack.
+        ClassType skimClass = currentClass;
+        FunctionType skimFunction = type;
+        boolean classBody = false;
+        int bodyDepth = 1;
+        List<SkimContext> enclosing = null;
+        // What the next '{' opens, if it's a class or function
+        ClassType nextClass = null;
+        FunctionType nextFunction = null;
+
+        int depth = 1;
+        while (!isAtEnd()) {
+            Token token = advance();
+            switch (token.type) {
+                case LEFT_BRACE:
+                    depth++;
+                    if (nextClass != null || nextFunction != null) {
+                        if (enclosing == null)
+                            enclosing = new ArrayList<>();
+                        enclosing.add(new SkimContext(skimClass, skimFunction, classBody, bodyDepth));
+                        if (nextClass != null)
+                            skimClass = nextClass;
+                        if (nextFunction != null)
+                            skimFunction = nextFunction;
+                        classBody = nextClass != null;
+                        bodyDepth = depth;
+                        nextClass = null;
+                        nextFunction = null;
+                    }
+                    break;
+                case RIGHT_BRACE:
+                    if (bodyDepth == depth && enclosing != null && !enclosing.isEmpty()) {
+                        SkimContext context = enclosing.remove(enclosing.size() - 1);
+                        skimClass = context.currentClass;
+                        skimFunction = context.currentFunction;
+                        classBody = context.classBody;
+                        bodyDepth = context.depth;
+                    }
+                    if (--depth == 0)
+                        return;
+                    break;
+                case CLASS:
+                    nextClass = ClassType.CLASS;
+                    if (check(IDENTIFIER) && current + 2 < tokens.size() && tokens.get(current + 1).type == LESS) {
+                        nextClass = ClassType.SUBCLASS;
+                        Token superclass = tokens.get(current + 2);
+                        if (superclass.lexeme.equals(peek().lexeme))
+                            resolveError(superclass, "A class can't inherit from itself.");
+                    }
+                    break;
+                case FUN:
+                    nextFunction = FunctionType.FUNCTION;
+                    break;
+                case IDENTIFIER:
+                    // A method's name, straight inside a class body
+                    if (classBody && bodyDepth == depth && check(LEFT_PAREN))
+                        nextFunction = token.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+                    break;
+                case THIS:
+                    if (skimClass == ClassType.NONE)
+                        resolveError(token, "Can't use 'this' outside of a class.");
+                    break;
+                case SUPER:
+                    if (skimClass == ClassType.NONE) {
+                        resolveError(token, "Can't use 'super' outside of a class.");
+                    } else if (skimClass != ClassType.SUBCLASS) {
+                        resolveError(token, "Can't use 'super' in a class with no superclass.");
+                    }
+                    break;
+                case RETURN:
+                    if (skimFunction == FunctionType.INITIALIZER && !check(SEMICOLON))
+                        resolveError(token, "Can't return a value from an initializer.");
+                    break;
+                case EQUAL:
+                    // Other tokens before it are a syntax error the parse reports better
+                    TokenType before = tokens.get(current - 2).type;
+                    if ((isOperand(before) || before == RIGHT_PAREN) && !isAssignmentTarget(current - 1))
+                        error(token, "Invalid assignment target.");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        throw error(peek(), "Expected '}' after block.");
+    }
+
+    /*
+     * Whether the tokens before the '=' at index make a variable or a property, like
+     * assignment() would parse them. A property's object is walked back over, and
+     * what comes before the target decides it: after an operator, the target is only
+     * the end of a bigger expression.
+     */
+    private boolean isAssignmentTarget(int equals) {
+        int i = equals - 1;
+        if (i < 0 || tokens.get(i).type != IDENTIFIER)
+            return false;
+        i--;
+        if (i >= 0 && tokens.get(i).type == DOT) {
+            i--;
+            // super.method is an expression of its own, not a property
+            if (i >= 0 && tokens.get(i).type == SUPER)
+                return false;
+            i = beforeObject(i);
+        }
+        if (i < 0)
+            return true;
+        switch (tokens.get(i).type) {
+            case MINUS:
+            case PLUS:
+            case SLASH:
+            case STAR:
+            case BANG:
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case AND:
+            case OR:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /*
+     * The index of the token before the object whose last token is at index, going
+     * back over property accesses and calls, or -1 if the start can't be found.
+     */
+    private int beforeObject(int i) {
+        while (i >= 0) {
+            if (tokens.get(i).type == RIGHT_PAREN) {
+                // Arguments if something is called, otherwise a grouping
+                int parens = 0;
+                for (; i >= 0; i--) {
+                    TokenType type = tokens.get(i).type;
+                    if (type == RIGHT_PAREN) {
+                        parens++;
+                    } else if (type == LEFT_PAREN && --parens == 0) {
+                        break;
+                    }
+                }
+                i--;
+                if (i >= 0 && (isOperand(tokens.get(i).type) || tokens.get(i).type == RIGHT_PAREN))
+                    continue;
+                return i;
+            }
+            if (!isOperand(tokens.get(i).type))
+                return i;
+            i--;
+            if (i >= 0 && tokens.get(i).type == DOT) {
+                i--;
+                continue;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean isOperand(TokenType type) {
+        switch (type) {
+            case IDENTIFIER:
+            case THIS:
+            case SUPER:
+            case STRING:
+            case NUMBER:
+            case TRUE:
+            case FALSE:
+            case NIL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
 
@@ -257,7 +611,9 @@ class Parser {
             if (expr instanceof Expr.Variable) {
                 // Convert the r-value expression node into an l-value representation
                 Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
+                Expr.Assign assign = new Expr.Assign(name, value);
+                resolveLocal(assign, name);
+                return assign;
             } else if (expr instanceof Expr.Get) { // Properties
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.object, get.name, value);
@@ -413,15 +769,37 @@ class Parser {
             Token keyword = previous();
             consume(DOT, "Expected '.' after 'super.");
             Token method = consume(IDENTIFIER, "Expected superclass method name.");
-            return new Expr.Super(keyword, method);
+            Expr.Super expr = new Expr.Super(keyword, method);
+            if (currentClass == ClassType.NONE) {
+                resolveError(keyword, "Can't use 'super' outside of a class.");
+            } else if (currentClass != ClassType.SUBCLASS) {
+                resolveError(keyword, "Can't use 'super' in a class with no superclass.");
+            }
+            resolveLocal(expr, keyword);
+            return expr;
         }
 
-        if (match(THIS))
-            return new Expr.This(previous());
+        if (match(THIS)) {
+            Expr.This expr = new Expr.This(previous());
+            if (currentClass == ClassType.NONE) {
+                resolveError(expr.keyword, "Can't use 'this' outside of a class.");
+            } else {
+                resolveLocal(expr, expr.keyword);
+            }
+            return expr;
+        }
 
         // This allows using a variable!
         if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
+            Expr.Variable expr = new Expr.Variable(previous());
+            // An assignment target is resolved once assignment() has built the Assign
+            if (!check(EQUAL)) {
+                if (scopes.isDeclaredButUndefined(expr.name.lexeme)) {
+                    resolveError(expr.name, "Can't read local variable in its own initializer.");
+                }
+                resolveLocal(expr, expr.name);
+            }
+            return expr;
         }
 
         if (match(LEFT_PAREN)) {
@@ -433,6 +811,45 @@ class Parser {
         throw error(peek(), "Expected expression.");
     }
 
+    /* Fused mode helpers. They mirror the Resolver and do nothing otherwise. */
+
+    private void beginScope() {
+        if (locals != null)
+            scopes.begin();
+    }
+
+    private void endScope() {
+        if (locals != null)
+            scopes.end();
+    }
+
+    private void declare(Token name) {
+        if (locals == null || scopes.isEmpty())
+            return;
+        if (!scopes.declare(name.lexeme)) {
+            resolveError(name, "There is already a variable with this name in this scope.");
+        }
+    }
+
+    private void define(Token name) {
+        if (locals == null || scopes.isEmpty())
+            return;
+        scopes.define(name.lexeme);
+    }
+
+    private void resolveLocal(Expr expr, Token name) {
+        if (locals == null)
+            return;
+        int distance = scopes.distanceTo(name.lexeme);
+        if (distance != -1)
+            locals.put(expr, distance);
+    }
+
+    private void resolveError(Token token, String message) {
+        if (locals != null)
+            resolveErrors.add(new ResolveError(token, message));
+    }
+
     /**
      * Check if the current token has any of the given types.
      * If so, consume the token.
@@ -488,7 +905,8 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        hadError = true;
+        reporter.error(token, message);
         // Return the error instead of throwing it so we can let the calling method
         // inside the parser decide whether to unwind or not.
         return new ParseError();
@@ -511,6 +929,7 @@ class Parser {
             switch (peek().type) {
                 case CLASS:
                 case FUN:
+                case IMPORT:
                 case VAR:
                 case FOR:
                 case IF:
@@ -525,4 +944,85 @@ class Parser {
             advance();
         }
     }
-}
\ No newline at end of file
+
+    /* Whether a function body has been parsed, i.e. it wasn't skimmed or it's been called. */
+    static boolean isParsed(List<Stmt> body) {
+        return !(body instanceof LazyBody) || ((LazyBody) body).statements != null;
+    }
+
+    /**
+     * The body of a function that was only skimmed. It looks like any other list of
+     * statements, but the statements are parsed and resolved on first access, in the
+     * scopes that were visible where the function was declared.
+     */
+    private static class LazyBody extends AbstractList<Stmt> implements RandomAccess {
+        private final Token name;
+        private List<Token> tokens; // Everything after the opening brace, up to and including the closing one
+        private final Map<Expr, Integer> locals;
+        private Scopes scopes;
+        private final FunctionType type;
+        private final ClassType enclosingClass;
+
+        private volatile List<Stmt> statements;
+        // Thrown on every call once parsing failed. The errors go to whichever interpreter
+        // called the function, since whatever compiled the program may be long gone.
+        private volatile CompileError failure;
+
+        LazyBody(Token name, List<Token> tokens, Map<Expr, Integer> locals, Scopes scopes,
+                FunctionType type, ClassType enclosingClass) {
+            this.name = name;
+            this.tokens = tokens;
+            this.locals = locals;
+            this.scopes = scopes;
+            this.type = type;
+            this.enclosingClass = enclosingClass;
+        }
+
+        @Override
+        public Stmt get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return statements().size();
+        }
+
+        private List<Stmt> statements() {
+            List<Stmt> result = statements;
+            if (result == null) {
+                synchronized (this) {
+                    result = statements;
+                    if (result == null && failure == null) {
+                        parse();
+                        // The tokens and scopes aren't needed anymore
+                        tokens = null;
+                        scopes = null;
+                        result = statements;
+                    }
+                }
+                if (result == null)
+                    throw failure;
+            }
+            return result;
+        }
+
+        private void parse() {
+            List<Token> body = new ArrayList<>(tokens.size() + 1);
+            body.addAll(tokens);
+            body.add(new Token(EOF, "", null, tokens.get(tokens.size() - 1).line));
+
+            ErrorCollector errors = new ErrorCollector();
+            Parser parser = new Parser(body, errors, locals, true, scopes, type, enclosingClass);
+            List<Stmt> parsed = parser.block();
+            parser.reportResolveErrors();
+
+            if (parser.hadError) {
+                failure = new CompileError(name, "Invalid body in function '" + name.lexeme + "'.",
+                        errors.errors());
+            } else {
+                statements = parsed;
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiles Lox code, for --profile. The interpreter tells it about every call,
+ * so it can count calls and measure each function's time, both inclusive (with
+ * the functions it calls) and self (without). With --profile-alloc it measures
+ * each function's allocations too, which costs two more calls into the JVM on
+ * every call.
+ *
+ * It can also sample: a background thread looks at the Lox call stack every
+ * millisecond and counts how often it sees each one. The samples are written
+ * as collapsed stacks ("script;outer;inner 12"), which flame graph tools read.
+ *
+ * One profiler belongs to one interpreter, and only that interpreter's thread
+ * may call enter() and exit().
+ */
+class Profiler {
+    private static final long SAMPLE_INTERVAL_MILLIS = 1;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /* Everything measured for one function (or class, or native). */
+    static class Entry {
+        final Profiler owner; // Declarations are shared, so check an entry found on one is ours
+        final String name;
+        long calls = 0;
+        long inclusiveNanos = 0;
+        long selfNanos = 0;
+        long selfBytes = 0;
+        int active = 0; // Activations on the stack, so recursion isn't counted twice
+
+        Entry(Profiler owner, String name) {
+            this.owner = owner;
+            this.name = name;
+        }
+    }
+
+    // Keyed by function declaration (or by class or native)
+    private final Map<Object, Entry> entries = new IdentityHashMap<>();
+    private final Map<Stmt.Function, String> methodNames = new IdentityHashMap<>();
+    private final Entry script = new Entry(this, "<script>");
+
+    // The call stack
+    private Entry[] stack = new Entry[64];
+    private int depth = 0;
+    // The stack as the sampler sees it. Volatile writes aren't free, so these are
+    // only kept up to date when sampling. A frame is written before the depth is
+    // raised past it, so the sampler never sees one that hasn't been filled in.
+    private volatile Entry[] sampledStack = stack;
+    private volatile int sampledDepth = 0;
+    private long[] startNanos = new long[64];
+    private long[] startBytes = new long[64];
+    private long[] childNanos = new long[64];
+    private long[] childBytes = new long[64];
+    private long thread;
+
+    private final boolean allocations; // Measure allocations, not just time
+    private final Path samplesFile; // Where to write sampled stacks, or null to not sample
+    private final boolean sampling;
+    private final Map<String, Long> samples = new HashMap<>();
+    private Thread sampler;
+
+    Profiler(boolean allocations, Path samplesFile) {
+        this.allocations = allocations;
+        this.samplesFile = samplesFile;
+        this.sampling = samplesFile != null;
+    }
+
+    /* Start profiling the script, on the calling thread. */
+    void start() {
+        thread = Thread.currentThread().getId();
+        depth = 0;
+        sampledDepth = 0;
+        push(script);
+
+        if (sampling && sampler == null) {
+            sampler = new Thread(this::sample, "lox-profiler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    void stop() {
+        while (depth > 0) {
+            exit();
+        }
+        if (sampler != null) {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sampler = null;
+        }
+    }
+
+    /* Remember the class a method belongs to, for nicer names. */
+    void methodsOf(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            methodNames.put(method, stmt.name.lexeme + "." + method.name.lexeme);
+        }
+    }
+
+    void enter(LoxCallable callee) {
+        push(entryFor(callee));
+    }
+
+    void exit() {
+        int top = depth - 1;
+        Entry entry = stack[top];
+        long nanos = System.nanoTime() - startNanos[top];
+        long bytes = allocations ? threads.getThreadAllocatedBytes(thread) - startBytes[top] : 0;
+        depth = top;
+        if (sampling)
+            sampledDepth = top;
+
+        entry.active--;
+        if (entry.active == 0)
+            entry.inclusiveNanos += nanos;
+        entry.selfNanos += nanos - childNanos[top];
+        entry.selfBytes += bytes - childBytes[top];
+        if (top > 0) {
+            childNanos[top - 1] += nanos;
+            childBytes[top - 1] += bytes;
+        }
+    }
+
+    private void push(Entry entry) {
+        int top = depth;
+        if (top == startNanos.length)
+            grow();
+
+        entry.calls++;
+        entry.active++;
+        stack[top] = entry;
+        childNanos[top] = 0;
+        childBytes[top] = 0;
+        if (allocations)
+            startBytes[top] = threads.getThreadAllocatedBytes(thread);
+        startNanos[top] = System.nanoTime();
+        depth = top + 1;
+        if (sampling)
+            sampledDepth = top + 1;
+    }
+
+    private void grow() {
+        int capacity = startNanos.length * 2;
+        startNanos = Arrays.copyOf(startNanos, capacity);
+        startBytes = Arrays.copyOf(startBytes, capacity);
+        childNanos = Arrays.copyOf(childNanos, capacity);
+        childBytes = Arrays.copyOf(childBytes, capacity);
+        stack = Arrays.copyOf(stack, capacity);
+        sampledStack = stack;
+    }
+
+    private Entry entryFor(LoxCallable callee) {
+        if (callee instanceof LoxFunction) {
+            // Kept on the declaration, since binding a method makes a new LoxFunction each time
+            Stmt.Function declaration = ((LoxFunction) callee).declaration;
+            Entry entry = declaration.profile;
+            if (entry == null || entry.owner != this) {
+                entry = lookUp(declaration, callee);
+                declaration.profile = entry;
+            }
+            return entry;
+        }
+        return lookUp(callee, callee);
+    }
+
+    private Entry lookUp(Object key, LoxCallable callee) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(this, nameOf(callee));
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private String nameOf(LoxCallable callee) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            String name = methodNames.getOrDefault(function.declaration, function.declaration.name.lexeme);
+            Path path = function.module.path;
+            return name + " (" + (path == null ? "" : path.getFileName() + ":") + function.declaration.name.line + ")";
+        }
+        if (callee instanceof LoxClass)
+            return ((LoxClass) callee).name + "()";
+        return callee.toString();
+    }
+
+    /* The sampler thread's loop. */
+    private void sample() {
+        StringBuilder key = new StringBuilder();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            // Racy by design: the interpreter doesn't stop for us. Frames below the
+            // depth we read are always filled in, if perhaps by a newer call.
+            int top = sampledDepth;
+            Entry[] frames = sampledStack;
+            if (top == 0)
+                continue;
+            key.setLength(0);
+            for (int i = 0; i < top && i < frames.length && frames[i] != null; i++) {
+                if (i > 0)
+                    key.append(';');
+                key.append(frames[i].name.replace(';', ','));
+            }
+            synchronized (samples) {
+                samples.merge(key.toString(), 1L, Long::sum);
+            }
+        }
+    }
+
+    /* Print the functions with the most self time. */
+    void report(PrintStream out, int top) {
+        List<Entry> all = new ArrayList<>(entries.values());
+        all.add(script);
+        all.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+        long total = Math.max(script.inclusiveNanos, 1);
+
+        out.println(String.format("Profile: top %d of %d by self time, %.1fms in total", Math.min(top, all.size()),
+                all.size(), total / 1e6));
+        out.println(String.format("%10s %10s %7s %10s ", "calls", "self ms", "self %", "total ms")
+                + (allocations ? String.format("%12s ", "self alloc") : "") + " function");
+        for (Entry entry : all.subList(0, Math.min(top, all.size()))) {
+            out.println(String.format("%10d %10.1f %6.1f%% %10.1f ", entry.calls, entry.selfNanos / 1e6,
+                    100.0 * entry.selfNanos / total, entry.inclusiveNanos / 1e6)
+                    + (allocations ? String.format("%12s ", bytes(entry.selfBytes)) : "") + " " + entry.name);
+        }
+    }
+
+    /* Write the sampled stacks, if sampling, in collapsed format. */
+    void writeSamples() throws IOException {
+        if (samplesFile == null)
+            return;
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(samplesFile, StandardCharsets.UTF_8))) {
+            synchronized (samples) {
+                for (Map.Entry<String, Long> sample : samples.entrySet()) {
+                    writer.println(sample.getKey() + " " + sample.getValue());
+                }
+            }
+        }
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes >= 1 << 20)
+            return String.format("%.1f MB", bytes / (double) (1 << 20));
+        return String.format("%.1f KB", bytes / 1024.0);
+    }
+}
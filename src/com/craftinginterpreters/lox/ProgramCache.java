@@ -0,0 +1,639 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches parsed and resolved programs on disk, so running an unchanged script
+ * doesn't have to scan, parse and resolve it again.
+ *
+ * Each program is stored in its own file named after the SHA-256 of its source.
+ * The file holds the syntax tree in a compact binary form, with the resolver's
+ * depth stored right next to each variable reference. Bump FORMAT_VERSION
+ * whenever the tree, the scanner or the resolver change in a way that would make
+ * old files mean something else.
+ */
+class ProgramCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path directory;
+    private final PrintStream diagnostics; // Where to say why an entry was skipped, or null
+
+    ProgramCache(Path directory, PrintStream diagnostics) {
+        this.directory = directory;
+        this.diagnostics = diagnostics;
+    }
+
+    /* $LOX_CACHE_DIR, or jlox in the user's cache directory. */
+    static Path defaultDirectory() {
+        String dir = System.getenv("LOX_CACHE_DIR");
+        if (dir != null && !dir.isEmpty())
+            return Paths.get(dir);
+
+        dir = System.getenv("XDG_CACHE_HOME");
+        if (dir != null && !dir.isEmpty())
+            return Paths.get(dir, "jlox");
+
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    /* Load the compiled module for this source, or null if there's no valid copy. */
+    Module load(Path path, String source) {
+        byte[] hash = hash(source);
+        try (InputStream file = Files.newInputStream(pathFor(hash))) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return null;
+
+            byte[] storedHash = new byte[hash.length];
+            in.readFully(storedHash);
+            if (!Arrays.equals(hash, storedHash))
+                return null;
+
+            Map<Expr, Integer> locals = new HashMap<>();
+            List<Stmt> statements = new Reader(in, locals).readStatements();
+            return new Module(path, statements, locals);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // A truncated or corrupt file is just a miss; it's overwritten on store
+            if (diagnostics != null)
+                diagnostics.println("[cache] ignoring unreadable entry: " + e);
+            return null;
+        }
+    }
+
+    /* Store a program that resolved without errors. Failing to store isn't an error. */
+    void store(String source, Module module) {
+        byte[] hash = hash(source);
+        Path path = pathFor(hash);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            // Write to a temporary file and move it in place, so concurrent runs never
+            // see half a file.
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+            try (OutputStream file = Files.newOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(hash);
+                new Writer(out, module.locals).writeStatements(module.statements);
+                out.flush();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException e) {
+            if (diagnostics != null)
+                diagnostics.println("[cache] could not store entry: " + e);
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Nothing else to do
+            }
+        }
+    }
+
+    private Path pathFor(byte[] hash) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16));
+            name.append(Character.forDigit(b & 0xf, 16));
+        }
+        return directory.resolve(name.append(".loxc").toString());
+    }
+
+    private static byte[] hash(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Node tags. 0 always stands for a missing (null) node.
+    private static final int BINARY = 1, CALL = 2, ASSIGN = 3, GET = 4, GROUPING = 5, LITERAL = 6,
+            LOGICAL = 7, SET = 8, SUPER = 9, THIS = 10, UNARY = 11, VARIABLE = 12;
+    private static final int BLOCK = 1, CLASS = 2, EXPRESSION = 3, FUNCTION = 4, IF = 5, PRINT = 6,
+            RETURN = 7, VAR = 8, WHILE = 9, IMPORT = 10;
+
+    // Value tags
+    private static final int NIL = 0, TRUE = 1, FALSE = 2, NUMBER = 3, STRING = 4;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    /* Writes a tree depth-first. Strings are written once and then referred to by index. */
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<Expr, Integer> locals;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out, Map<Expr, Integer> locals) {
+            this.out = out;
+            this.locals = locals;
+        }
+
+        void writeStatements(List<Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt statement : statements) {
+                write(statement);
+            }
+        }
+
+        private void write(Stmt stmt) {
+            if (stmt == null) {
+                writeInt(0);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void write(Expr expr) {
+            if (expr == null) {
+                writeInt(0);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void writeExpressions(List<Expr> exprs) {
+            writeInt(exprs.size());
+            for (Expr expr : exprs) {
+                write(expr);
+            }
+        }
+
+        private void writeTokens(List<Token> tokens) {
+            writeInt(tokens.size());
+            for (Token token : tokens) {
+                write(token);
+            }
+        }
+
+        private void write(Token token) {
+            writeInt(token.type.ordinal());
+            write(token.lexeme);
+            writeValue(token.literal);
+            writeInt(token.line);
+        }
+
+        /* The resolved depth of a local variable, shifted by one so 0 means global. */
+        private void writeDepth(Expr expr) {
+            Integer depth = locals.get(expr);
+            writeInt(depth == null ? 0 : depth + 1);
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                writeInt(NIL);
+            } else if (value instanceof Boolean) {
+                writeInt((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                writeInt(NUMBER);
+                try {
+                    out.writeDouble((Double) value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                writeInt(STRING);
+                write((String) value);
+            }
+        }
+
+        private void write(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+
+            // A new string gets the next index and is written out in full
+            writeInt(strings.size());
+            strings.put(string, strings.size());
+            try {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeInt(bytes.length);
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /* Unsigned variable-length int; most values here fit in one byte. */
+        private void writeInt(int value) {
+            try {
+                while ((value & ~0x7f) != 0) {
+                    out.writeByte((value & 0x7f) | 0x80);
+                    value >>>= 7;
+                }
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeInt(BINARY);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeInt(CALL);
+            write(expr.callee);
+            write(expr.paren);
+            writeExpressions(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeInt(ASSIGN);
+            write(expr.name);
+            write(expr.value);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            writeInt(GET);
+            write(expr.object);
+            write(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeInt(GROUPING);
+            write(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeInt(LITERAL);
+            writeValue(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeInt(LOGICAL);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeInt(SET);
+            write(expr.object);
+            write(expr.name);
+            write(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            writeInt(SUPER);
+            write(expr.keyword);
+            write(expr.method);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            writeInt(THIS);
+            write(expr.keyword);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeInt(UNARY);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeInt(VARIABLE);
+            write(expr.name);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeInt(BLOCK);
+            writeStatements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            writeInt(CLASS);
+            write(stmt.name);
+            write(stmt.superclass);
+            writeInt(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) {
+                write(method);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeInt(EXPRESSION);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeInt(FUNCTION);
+            write(stmt.name);
+            writeTokens(stmt.params);
+            writeStatements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeInt(IF);
+            write(stmt.condition);
+            write(stmt.thenBranch);
+            write(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            writeInt(IMPORT);
+            write(stmt.keyword);
+            write(stmt.path);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeInt(PRINT);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeInt(RETURN);
+            write(stmt.keyword);
+            write(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeInt(VAR);
+            write(stmt.name);
+            write(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeInt(WHILE);
+            write(stmt.condition);
+            write(stmt.body);
+            return null;
+        }
+    }
+
+    /* Reads back what Writer wrote, in the same order. */
+    private static class Reader {
+        private final DataInputStream in;
+        private final Map<Expr, Integer> locals;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in, Map<Expr, Integer> locals) {
+            this.in = in;
+            this.locals = locals;
+        }
+
+        List<Stmt> readStatements() throws IOException {
+            int size = readInt();
+            List<Stmt> statements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        private Stmt readStmt() throws IOException {
+            int tag = readInt();
+            switch (tag) {
+                case 0:
+                    return null;
+                case BLOCK:
+                    return new Stmt.Block(readStatements());
+                case CLASS: {
+                    Token name = readToken();
+                    Expr.Variable superclass = (Expr.Variable) readExpr();
+                    int size = readInt();
+                    List<Stmt.Function> methods = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        methods.add((Stmt.Function) readStmt());
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case EXPRESSION:
+                    return new Stmt.Expression(readExpr());
+                case FUNCTION: {
+                    Token name = readToken();
+                    List<Token> params = readTokens();
+                    return new Stmt.Function(name, params, readStatements());
+                }
+                case IF: {
+                    Expr condition = readExpr();
+                    Stmt thenBranch = readStmt();
+                    return new Stmt.If(condition, thenBranch, readStmt());
+                }
+                case IMPORT: {
+                    Token keyword = readToken();
+                    return new Stmt.Import(keyword, readToken());
+                }
+                case PRINT:
+                    return new Stmt.Print(readExpr());
+                case RETURN: {
+                    Token keyword = readToken();
+                    return new Stmt.Return(keyword, readExpr());
+                }
+                case VAR: {
+                    Token name = readToken();
+                    return new Stmt.Var(name, readExpr());
+                }
+                case WHILE: {
+                    Expr condition = readExpr();
+                    return new Stmt.While(condition, readStmt());
+                }
+                default:
+                    throw new IOException("Unknown statement tag " + tag + ".");
+            }
+        }
+
+        private Expr readExpr() throws IOException {
+            int tag = readInt();
+            switch (tag) {
+                case 0:
+                    return null;
+                case BINARY: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Binary(left, operator, readExpr());
+                }
+                case CALL: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int size = readInt();
+                    List<Expr> arguments = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        arguments.add(readExpr());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case ASSIGN: {
+                    Token name = readToken();
+                    return readDepth(new Expr.Assign(name, readExpr()));
+                }
+                case GET: {
+                    Expr object = readExpr();
+                    return new Expr.Get(object, readToken());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(readExpr());
+                case LITERAL:
+                    return new Expr.Literal(readValue());
+                case LOGICAL: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Logical(left, operator, readExpr());
+                }
+                case SET: {
+                    Expr object = readExpr();
+                    Token name = readToken();
+                    return new Expr.Set(object, name, readExpr());
+                }
+                case SUPER: {
+                    Token keyword = readToken();
+                    return readDepth(new Expr.Super(keyword, readToken()));
+                }
+                case THIS:
+                    return readDepth(new Expr.This(readToken()));
+                case UNARY: {
+                    Token operator = readToken();
+                    return new Expr.Unary(operator, readExpr());
+                }
+                case VARIABLE:
+                    return readDepth(new Expr.Variable(readToken()));
+                default:
+                    throw new IOException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        private Expr readDepth(Expr expr) throws IOException {
+            int depth = readInt();
+            if (depth != 0)
+                locals.put(expr, depth - 1);
+            return expr;
+        }
+
+        private List<Token> readTokens() throws IOException {
+            int size = readInt();
+            List<Token> tokens = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                tokens.add(readToken());
+            }
+            return tokens;
+        }
+
+        private Token readToken() throws IOException {
+            TokenType type = TOKEN_TYPES[readInt()];
+            String lexeme = readString();
+            Object literal = readValue();
+            return new Token(type, lexeme, literal, readInt());
+        }
+
+        private Object readValue() throws IOException {
+            int tag = readInt();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case NUMBER:
+                    return in.readDouble();
+                case STRING:
+                    return readString();
+                default:
+                    throw new IOException("Unknown value tag " + tag + ".");
+            }
+        }
+
+        private String readString() throws IOException {
+            int index = readInt();
+            if (index < strings.size())
+                return strings.get(index);
+            if (index != strings.size())
+                throw new IOException("Malformed string table.");
+
+            byte[] bytes = new byte[readInt()];
+            in.readFully(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        private int readInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Malformed integer.");
+        }
+    }
+}
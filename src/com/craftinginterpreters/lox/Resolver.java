@@ -1,28 +1,35 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
+    private final Map<Expr, Integer> locals;
+    private final ErrorReporter reporter;
     // only used for block scopes. If a variable is not here, it must be global
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Scopes scopes = new Scopes();
     private FunctionType currentFunction = FunctionType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private boolean hadError = false;
+
+    /* Resolve into the given map from expressions to the depth of their variable. */
+    Resolver(Map<Expr, Integer> locals, ErrorReporter reporter) {
+        this.locals = locals;
+        this.reporter = reporter;
+    }
+
+    boolean hadError() {
+        return hadError;
     }
 
-    private enum FunctionType {
+    enum FunctionType {
         NONE,
         FUNCTION,
         INITIALIZER,
         METHOD
     }
 
-    private enum ClassType {
+    enum ClassType {
         NONE,
         CLASS,
         SUBCLASS
@@ -49,7 +56,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -59,11 +66,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            scopes.define("super");
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        scopes.define("this");
         // Whenever "this" is encoutered inside a method, it will resole to a local
         // variable defined in an implicit scope outside the block for the method body.
 
@@ -110,6 +117,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // Modules are resolved on their own
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
@@ -120,12 +133,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitReturnStmt(Stmt.Return stmt) {
         // FunctionType lets us know if we're inside a function
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword,
+                error(stmt.keyword,
                         "Can't return a value from an initializer.");
             }
 
@@ -217,10 +230,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'super' in a class with no superclass.");
         }
 
@@ -231,7 +244,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
 
@@ -249,8 +262,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitVariableExpr(Expr.Variable expr) {
         // If variable exists in current scope, but we haven't defined it yet, we report
         // an error.
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+        if (scopes.isDeclaredButUndefined(expr.name.lexeme)) {
+            error(expr.name, "Can't read local variable in its own initializer.");
         }
 
         // Resolve the variable itself
@@ -259,18 +272,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void resolveLocal(Expr expr, Token name) {
-        // Start at the innermost scope and work outwards
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            // Look at each map for a matching name
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                // If we find the var, resolve it, and pass the number of scopes between the
-                // innermost scope and the one where we found it.
-                // 0 means current scope, 1 means immediately enclosing scope.
-                // If its not found, we assume its global
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
-        }
+        // Start at the innermost scope and work outwards. If we find the var, resolve
+        // it, and pass the number of scopes between the innermost scope and the one
+        // where we found it. 0 means current scope, 1 means immediately enclosing scope.
+        // If its not found, we assume its global
+        int distance = scopes.distanceTo(name.lexeme);
+        if (distance != -1)
+            locals.put(expr, distance);
     }
 
     void resolve(List<Stmt> statements) {
@@ -307,11 +315,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.begin();
     }
 
     private void endScope() {
-        scopes.pop();
+        scopes.end();
     }
 
     // Add variable to innermost scope so that it shadows any outer ones and so that
@@ -320,23 +328,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (scopes.isEmpty())
             return;
 
-        Map<String, Boolean> scope = scopes.peek();
-
         // Prevent user from defining variable with same name in any local scope (which
-        // is usually unintended)
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "There is already a variable with this name in this scope.");
+        // is usually unintended).
+        // The variable is marked as "not ready yet", i.e. we havent finished resolving
+        // the variable's initializer
+        if (!scopes.declare(name.lexeme)) {
+            error(name, "There is already a variable with this name in this scope.");
         }
-
-        // Mark variable as "not ready yet" with 'false', i.e. we havent finished
-        // resolving the variable's initializer
-        scope.put(name.lexeme, false);
     }
 
     private void define(Token name) {
         if (scopes.isEmpty())
             return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.define(name.lexeme);
     }
 
-}
\ No newline at end of file
+    private void error(Token token, String message) {
+        hadError = true;
+        reporter.error(token, message);
+    }
+}
@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what scripts do at runtime, for --stats: the objects they create,
+ * the calls they make and how their lookups turn out. Scripts can read the
+ * counts with the stats() native.
+ *
+ * Counting is off unless --stats turns it on, and then each count is one
+ * striped add, so interpreters on different threads don't fight over it. The
+ * counts are for the whole process.
+ */
+class RuntimeStats {
+    static boolean enabled = false; // Set before any script runs
+
+    enum Counter {
+        ENVIRONMENTS("environments", "environments created"),
+        INSTANCES("instances", "class instances created"),
+        FUNCTIONS("functions", "functions and methods declared"),
+        BOUND_METHODS("boundMethods", "methods bound to an instance"),
+        NUMBERS("numbers", "numbers boxed by arithmetic"),
+        FUNCTION_CALLS("functionCalls", "calls to Lox functions"),
+        NATIVE_CALLS("nativeCalls", "calls to native functions"),
+        CLASS_CALLS("classCalls", "calls to classes"),
+        LOCAL_LOOKUPS("localLookups", "local variable lookups"),
+        GLOBAL_LOOKUPS("globalLookups", "global variable lookups"),
+        FIELD_GETS("fieldGets", "property gets that found a field"),
+        METHOD_GETS("methodGets", "property gets that found a method"),
+        INHERITED_METHOD_GETS("inheritedMethodGets", "property gets that found an inherited method"),
+        UNDEFINED_GETS("undefinedGets", "property gets that found nothing");
+
+        final String name; // What stats() calls it
+        final String description;
+
+        Counter(String name, String description) {
+            this.name = name;
+            this.description = description;
+        }
+    }
+
+    private static final LongAdder[] counts = new LongAdder[Counter.values().length];
+    private static final LongAccumulator maxCallDepth = new LongAccumulator(Math::max, 0);
+
+    static {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    static void count(Counter counter) {
+        if (enabled)
+            counts[counter.ordinal()].increment();
+    }
+
+    /* Called when a call goes deeper than its interpreter has been before. */
+    static void callDepth(int depth) {
+        maxCallDepth.accumulate(depth);
+    }
+
+    /* The count with the given name, or null if there's no such count. */
+    static Long get(String name) {
+        if (name.equals("maxCallDepth"))
+            return maxCallDepth.get();
+        for (Counter counter : Counter.values()) {
+            if (counter.name.equals(name))
+                return counts[counter.ordinal()].sum();
+        }
+        return null;
+    }
+
+    static void report(PrintStream out) {
+        out.println("Runtime stats:");
+        for (Counter counter : Counter.values()) {
+            out.println(String.format("%14d  %-20s %s", counts[counter.ordinal()].sum(), counter.name,
+                    counter.description));
+        }
+        out.println(String.format("%14d  %-20s %s", maxCallDepth.get(), "maxCallDepth", "deepest call stack"));
+    }
+}
@@ -19,6 +19,7 @@ public class Scanner {
         keywords.put("for", FOR);
         keywords.put("fun", FUN);
         keywords.put("if", IF);
+        keywords.put("import", IMPORT);
         keywords.put("nil", NIL);
         keywords.put("or", OR);
         keywords.put("print", PRINT);
@@ -31,13 +32,16 @@ public class Scanner {
     }
 
     private final String source;
+    private final ErrorReporter reporter;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0; // first character in the lexeme beign considered
     private int current = 0; // current character in the lexeme beign considered
     private int line = 1; // tracks
+    private boolean hadError = false;
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
     }
 
     List<Token> scanTokens() {
@@ -51,6 +55,15 @@ public class Scanner {
         return tokens;
     }
 
+    boolean hadError() {
+        return hadError;
+    }
+
+    private void error(String message) {
+        hadError = true;
+        reporter.error(line, "", message);
+    }
+
     private void scanToken() {
         char c = advance();
         switch (c) {
@@ -120,7 +133,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    error("Unexpected character.");
                 }
                 break;
         }
@@ -161,7 +174,7 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            error("Unterminated string.");
             return;
         }
 
@@ -0,0 +1,128 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * The stack of local block scopes seen during static resolution.
+ * Instead of a (synchronized) Stack of HashMaps, every declared name lives in
+ * one flat array and each scope just remembers where it starts. Scopes are
+ * small, so a linear scan from the innermost name outwards is cheaper than
+ * hashing, and pushing/popping a scope doesn't allocate.
+ */
+class Scopes {
+    private String[] names = new String[16];
+    private boolean[] defined = new boolean[16]; // false while the initializer is being resolved
+    private int count = 0; // number of names across all open scopes
+
+    private int[] starts = new int[8]; // index in names[] where each scope begins
+    private int depth = 0; // number of open scopes
+
+    /* A copy of the scopes as they are now, for resolving code later. */
+    Scopes copy() {
+        Scopes copy = new Scopes();
+        copy.names = Arrays.copyOf(names, Math.max(count, 1));
+        copy.defined = Arrays.copyOf(defined, Math.max(count, 1));
+        copy.count = count;
+        copy.starts = Arrays.copyOf(starts, Math.max(depth, 1));
+        copy.depth = depth;
+        return copy;
+    }
+
+    boolean isEmpty() {
+        return depth == 0;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    void begin() {
+        if (depth == starts.length)
+            starts = Arrays.copyOf(starts, depth * 2);
+        starts[depth++] = count;
+    }
+
+    void end() {
+        int previous = count;
+        count = starts[--depth];
+        // Drop references so the names can be collected
+        Arrays.fill(names, count, previous, null);
+    }
+
+    /* Close scopes until only the given number remain (used for error recovery). */
+    void truncate(int depth) {
+        while (this.depth > depth)
+            end();
+    }
+
+    /*
+     * Add a name to the innermost scope, not yet defined. Returns false if the
+     * innermost scope already has a variable with this name.
+     */
+    boolean declare(String name) {
+        int existing = findInInnermost(name);
+        if (existing != -1) {
+            defined[existing] = false;
+            return false;
+        }
+
+        add(name, false);
+        return true;
+    }
+
+    /* Mark a name in the innermost scope as ready for use, adding it if needed. */
+    void define(String name) {
+        int existing = findInInnermost(name);
+        if (existing != -1) {
+            defined[existing] = true;
+        } else {
+            add(name, true);
+        }
+    }
+
+    /* Whether the name is declared in the innermost scope but not defined yet. */
+    boolean isDeclaredButUndefined(String name) {
+        int index = findInInnermost(name);
+        return index != -1 && !defined[index];
+    }
+
+    /*
+     * Number of scopes between the innermost scope and the one declaring the
+     * name, or -1 if no local scope declares it (so it must be a global).
+     */
+    int distanceTo(String name) {
+        int scope = depth - 1;
+        for (int i = count - 1; i >= 0; i--) {
+            while (i < starts[scope])
+                scope--;
+            if (names[i].equals(name))
+                return depth - 1 - scope;
+        }
+
+        return -1;
+    }
+
+    private int findInInnermost(String name) {
+        if (depth == 0)
+            return -1;
+        for (int i = count - 1; i >= starts[depth - 1]; i--) {
+            if (names[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private void add(String name, boolean isDefined) {
+        // Globals aren't tracked
+        if (depth == 0)
+            return;
+
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            defined = Arrays.copyOf(defined, count * 2);
+        }
+        names[count] = name;
+        defined[count] = isDefined;
+        count++;
+    }
+}
@@ -14,6 +14,8 @@ abstract class Stmt {
 
         R visitIfStmt(If stmt);
 
+        R visitImportStmt(Import stmt);
+
         R visitPrintStmt(Print stmt);
 
         R visitReturnStmt(Return stmt);
@@ -81,6 +83,7 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        Profiler.Entry profile;
     }
 
     static class If extends Stmt {
@@ -100,6 +103,21 @@ abstract class Stmt {
         final Stmt elseBranch;
     }
 
+    static class Import extends Stmt {
+        Import(Token keyword, Token path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+
+        final Token keyword;
+        final Token path;
+    }
+
     static class Print extends Stmt {
         Print(Expr expression) {
             this.expression = expression;
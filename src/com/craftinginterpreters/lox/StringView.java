@@ -0,0 +1,274 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A Lox string that's part of another one, made by substring() and split().
+ * It shares its source's characters instead of copying them, until something
+ * needs a java.lang.String (e.g. a Map key or a file path). Then it's
+ * materialised once, which also lets go of the source.
+ *
+ * A view can keep a large source alive, so strings stored for long are best
+ * materialised, e.g. with "" + view.
+ *
+ * This is also where the methods of all strings live. A call on a plain
+ * string goes straight to them, without making a view of it.
+ *
+ * string.length(), string.charAt(i), string.substring(start, end) (end not
+ * included), string.indexOf(text) (-1 if it isn't there), string.split(separator),
+ * string.replace(text, replacement) (every occurrence), string.toUpper(),
+ * string.toLower() and string.toNumber() (nil if it isn't a number).
+ */
+final class StringView implements CharSequence, NativeObject {
+    // charAt() of an ASCII character doesn't need a new string
+    private static final String[] ASCII = new String[128];
+
+    static {
+        for (char c = 0; c < ASCII.length; c++) {
+            ASCII[c] = String.valueOf(c);
+        }
+    }
+
+    private String source;
+    private int start;
+    private int end;
+    private boolean materialised;
+    private int hash = 0;
+
+    StringView(String source) {
+        this(source, 0, source.length());
+        this.materialised = true;
+    }
+
+    private StringView(String source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /* Whether a value is a Lox string. */
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof StringView;
+    }
+
+    /* A Lox string as a java.lang.String, or null if the value isn't a string. */
+    static String asString(Object value) {
+        if (value instanceof String)
+            return (String) value;
+        if (value instanceof StringView)
+            return value.toString();
+        return null;
+    }
+
+    /* The string whose characters the view shares. For the heap census. */
+    String source() {
+        return source;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return source.charAt(start + index);
+    }
+
+    @Override
+    public StringView subSequence(int start, int end) {
+        return new StringView(source, this.start + start, this.start + end);
+    }
+
+    /* Add the view's characters to a builder, without materialising it. */
+    void appendTo(StringBuilder builder) {
+        builder.append(source, start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (!materialised) {
+            source = source.substring(start, end);
+            start = 0;
+            end = source.length();
+            materialised = true;
+        }
+        return source;
+    }
+
+    /* Equal to a String or a view with the same characters, as == is in Lox. */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof String) && !(other instanceof StringView))
+            return false;
+        CharSequence text = (CharSequence) other;
+        if (text.length() != length())
+            return false;
+        if (other instanceof String)
+            return source.regionMatches(start, (String) other, 0, length());
+        StringView view = (StringView) other;
+        return source.regionMatches(start, view.source, view.start, length());
+    }
+
+    /* The same as the hash of the String it'd materialise as. */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (int i = start; i < end; i++) {
+                h = 31 * h + source.charAt(i);
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public int arity(String method) {
+        return arityOf(method);
+    }
+
+    /* The number of arguments a string method takes, or -1 if there's no such method. */
+    static int arityOf(String method) {
+        switch (method) {
+            case "length":
+            case "toUpper":
+            case "toLower":
+            case "toNumber":
+                return 0;
+            case "charAt":
+            case "indexOf":
+            case "split":
+                return 1;
+            case "substring":
+            case "replace":
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public Object call(Token method, List<Object> arguments) {
+        // A materialised view is just its string
+        if (materialised)
+            return call(source, method, arguments);
+        return call(this, source, start, end, method, arguments);
+    }
+
+    /* Call a method on a plain string, without making a view of it first. */
+    static Object call(String string, Token method, List<Object> arguments) {
+        return call(string, string, 0, string.length(), method, arguments);
+    }
+
+    /* Call a method on a string, which is the characters of source from start to end. */
+    private static Object call(CharSequence string, String source, int start, int end, Token method,
+            List<Object> arguments) {
+        int length = end - start;
+        switch (method.lexeme) {
+            case "length":
+                return (double) length;
+            case "charAt": {
+                char c = source.charAt(start + index(method, arguments.get(0), length));
+                return c < ASCII.length ? ASCII[c] : String.valueOf(c);
+            }
+            case "substring": {
+                int from = index(method, arguments.get(0), length + 1);
+                int to = index(method, arguments.get(1), length + 1);
+                if (to < from)
+                    throw new RuntimeError(method, "Substring end must not be before its start.");
+                return new StringView(source, start + from, start + to);
+            }
+            case "indexOf":
+                return (double) indexOf(source, start, end, text(method, arguments.get(0)), 0);
+            case "split":
+                return split(source, start, end, text(method, arguments.get(0)));
+            case "replace":
+                return replace(string, source, start, end, method, text(method, arguments.get(0)),
+                        text(method, arguments.get(1)));
+            case "toUpper":
+                return string.toString().toUpperCase(Locale.ROOT);
+            case "toLower":
+                return string.toString().toLowerCase(Locale.ROOT);
+            case "toNumber":
+                double number = NumberParser.parse(string);
+                return Double.isNaN(number) ? null : (Object) number;
+            default:
+                // arity() said there's no such method
+                throw new IllegalArgumentException(method.lexeme);
+        }
+    }
+
+    /* Where text first appears in source from start to end, at or after from, relative to start, or -1. */
+    private static int indexOf(String source, int start, int end, String text, int from) {
+        if (end == source.length()) {
+            // String.indexOf() is intrinsic, and here it can't look past the end
+            int index = source.indexOf(text, start + from);
+            return index == -1 ? -1 : index - start;
+        }
+        if (text.isEmpty())
+            return from;
+        char first = text.charAt(0);
+        int last = end - text.length();
+        for (int i = start + from; i <= last; i++) {
+            if (source.charAt(i) == first && source.regionMatches(i + 1, text, 1, text.length() - 1))
+                return i - start;
+        }
+        return -1;
+    }
+
+    private static LoxArray split(String source, int start, int end, String separator) {
+        LoxArray parts = new LoxArray();
+        if (separator.isEmpty()) {
+            // Every character on its own
+            for (int i = start; i < end; i++) {
+                parts.push(new StringView(source, i, i + 1));
+            }
+            return parts;
+        }
+        int from = 0;
+        for (int index = indexOf(source, start, end, separator, 0); index != -1;
+                index = indexOf(source, start, end, separator, from)) {
+            parts.push(new StringView(source, start + from, start + index));
+            from = index + separator.length();
+        }
+        parts.push(new StringView(source, start + from, end));
+        return parts;
+    }
+
+    private static Object replace(CharSequence string, String source, int start, int end, Token method,
+            String text, String replacement) {
+        if (text.isEmpty())
+            throw new RuntimeError(method, "Text to replace must not be empty.");
+        int index = indexOf(source, start, end, text, 0);
+        if (index == -1)
+            return string;
+        StringBuilder result = new StringBuilder(end - start);
+        int from = 0;
+        for (; index != -1; index = indexOf(source, start, end, text, from)) {
+            result.append(source, start + from, start + index).append(replacement);
+            from = index + text.length();
+        }
+        return result.append(source, start + from, end).toString();
+    }
+
+    private static String text(Token method, Object value) {
+        String text = asString(value);
+        if (text == null)
+            throw new RuntimeError(method, "Operand must be a string.");
+        return text;
+    }
+
+    /* Check an index argument, which must be a whole number below the limit. */
+    private static int index(Token method, Object index, int limit) {
+        if (!(index instanceof Double))
+            throw new RuntimeError(method, "String index must be a number.");
+        double value = (Double) index;
+        if (value != Math.floor(value))
+            throw new RuntimeError(method, "String index must be a whole number.");
+        if (value < 0 || value >= limit)
+            throw new RuntimeError(method, "String index out of bounds.");
+        return (int) value;
+    }
+}
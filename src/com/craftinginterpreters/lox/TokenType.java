@@ -11,7 +11,7 @@ enum TokenType {
     IDENTIFIER, STRING, NUMBER,
 
     // keywords
-    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 
     EOF
 }
@@ -40,8 +40,10 @@ public class GenerateAst {
                 "Block      : List<Stmt> statements",
                 "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                // The profiler keeps the entry it counts a function's calls in on its declaration
+                "Function   : Token name, List<Token> params, List<Stmt> body; Profiler.Entry profile",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+                "Import     : Token keyword, Token path",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
                 "Var        : Token name, Expr initializer", // Optional initializer, e.g. var a = 0
@@ -67,8 +69,11 @@ public class GenerateAst {
         // AST classes
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            // Fields after a ';' aren't part of the tree, aren't set by the constructor,
+            // and can be changed
+            String[] fields = type.split(":")[1].split(";");
+            defineType(writer, baseName, className, fields[0].trim(),
+                    fields.length > 1 ? fields[1].trim() : null);
         }
 
         // base accept() method
@@ -83,7 +88,8 @@ public class GenerateAst {
             PrintWriter writer,
             String baseName,
             String className,
-            String fieldList) {
+            String fieldList,
+            String mutableFieldList) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         // Constructor
@@ -112,6 +118,11 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println("        final " + field + ";");
         }
+        if (mutableFieldList != null) {
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
 
         writer.println("    }\n");
     }
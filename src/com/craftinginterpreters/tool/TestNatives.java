@@ -0,0 +1,115 @@
+package com.craftinginterpreters.tool;
+// Natives for the tests in lox/native, which the test runner gives every test
+
+import com.craftinginterpreters.lox.LoxNative;
+
+/**
+ * Java methods with one of each kind of parameter and result LoxNatives can
+ * convert, so the tests can check how values cross between Lox and Java.
+ */
+public class TestNatives {
+    private final String greeting;
+
+    public TestNatives(String greeting) {
+        this.greeting = greeting;
+    }
+
+    // Called on the object the runner added
+    @LoxNative
+    public String greet(String name) {
+        return greeting + ", " + name;
+    }
+
+    @LoxNative
+    public static double hypot(double a, double b) {
+        return Math.sqrt(a * a + b * b);
+    }
+
+    @LoxNative
+    public static int addInts(int a, int b) {
+        return a + b;
+    }
+
+    @LoxNative
+    public static long square(long x) {
+        return x * x;
+    }
+
+    @LoxNative
+    public static boolean isMinLong(long x) {
+        return x == Long.MIN_VALUE;
+    }
+
+    @LoxNative
+    public static float half(float x) {
+        return x / 2;
+    }
+
+    @LoxNative("negate")
+    public static boolean not(boolean value) {
+        return !value;
+    }
+
+    @LoxNative
+    public static String repeat(String text, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+
+    @LoxNative
+    public static int count(CharSequence text, String c) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c.charAt(0))
+                count++;
+        }
+        return count;
+    }
+
+    @LoxNative
+    public static char firstChar(String text) {
+        return text.charAt(0);
+    }
+
+    @LoxNative
+    public static Integer boxed(int x) {
+        return x;
+    }
+
+    @LoxNative
+    public static String typeOf(Object value) {
+        return value == null ? "nil" : value.getClass().getSimpleName();
+    }
+
+    @LoxNative
+    public static void nothing() {
+    }
+
+    @LoxNative
+    public static void fail(String message) {
+        throw new IllegalStateException(message);
+    }
+
+    // A Java object Lox can only hold and give back
+    public static class Counter {
+        int count = 0;
+    }
+
+    @LoxNative
+    public static Counter counter() {
+        return new Counter();
+    }
+
+    @LoxNative
+    public static int increment(Counter counter) {
+        return ++counter.count;
+    }
+
+    // Not annotated, so not a native
+    public static int hidden() {
+        return 0;
+    }
+}
@@ -0,0 +1,426 @@
+package com.craftinginterpreters.tool;
+// This is a tool that runs the test corpus through the interpreter, so it isn't part of the interpreter itself
+
+import com.craftinginterpreters.lox.CompiledScript;
+import com.craftinginterpreters.lox.ExecutionResult;
+import com.craftinginterpreters.lox.LoxEngine;
+import com.craftinginterpreters.lox.LoxError;
+import com.craftinginterpreters.lox.LoxNatives;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * TestRunner runs the test corpus (lox/robert_nystrom/test, and the tests for
+ * this interpreter's own additions in the other directories under lox/, like
+ * lox/array) in one JVM, on a pool of threads, and checks each test against
+ * the comments in it:
+ *
+ *   print 1; // expect: 1
+ *   var a = ; // Error at ';': Expect expression.
+ *   nil(); // expect runtime error: Can only call functions and classes.
+ *
+ * An error can also name its line ("// [line 3] Error ..."), and errors only
+ * jlox reports are marked "[java line 3]". Errors marked "[c line 3]" are clox's,
+ * so they're ignored. Tests with errors must exit with 65 (compile) or 70
+ * (runtime), like the command line.
+ *
+ * Every test can call the natives in TestNatives, which the tests in
+ * lox/native use.
+ *
+ * With --cache, every test runs twice: once compiling it and storing the
+ * program in a fresh on-disk cache, then again in another engine, which
+ * loads it from there.
+ *
+ * The tests in lox/cli run through the command line instead, each in its own
+ * JVM, with the same options. Tests listed in lox/known_failures.txt are
+ * expected to fail, so only other failures (or a listed test passing) make
+ * the run fail.
+ */
+public class TestRunner {
+    private static final Pattern EXPECTED_OUTPUT = Pattern.compile("// expect: ?(.*)");
+    private static final Pattern EXPECTED_ERROR = Pattern.compile("// (Error.*)");
+    private static final Pattern EXPECTED_ERROR_LINE = Pattern.compile("// \\[((java|c) )?line (\\d+)\\] (Error.*)");
+    private static final Pattern EXPECTED_RUNTIME_ERROR = Pattern.compile("// expect runtime error: (.+)");
+    private static final Pattern NON_TEST = Pattern.compile("// nontest");
+
+    // Tests for clox's limits, earlier chapters' interpreters, and benchmarks
+    private static final List<String> SKIPPED = Arrays.asList("benchmark", "limit", "expressions", "scanning");
+    private static final Path COMMAND_LINE_TESTS = Paths.get("lox/cli");
+    private static final Path KNOWN_FAILURES = Paths.get("lox/known_failures.txt");
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        boolean fused = false;
+        boolean lazy = false;
+        boolean verbose = false; // Print every test, not just failures
+        boolean cache = false; // Run every test again, from the compiled programs the first run cached
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> roots = new ArrayList<>();
+        String filter = null; // Only run tests whose path contains this
+        for (String arg : args) {
+            if (arg.equals("--fused")) {
+                fused = true;
+            } else if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--cache")) {
+                cache = true;
+            } else if (arg.equals("-v")) {
+                verbose = true;
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--root=")) {
+                roots.add(Paths.get(arg.substring("--root=".length())));
+            } else if (!arg.startsWith("-") && filter == null) {
+                filter = arg;
+            } else {
+                System.err.println("Usage: test_runner [--fused]? [--lazy]? [--cache]? [-v]? [--threads=n]? [--root=dir]* [filter]");
+                System.exit(64);
+            }
+        }
+
+        if (roots.isEmpty())
+            roots = defaultRoots();
+        List<Path> paths = new ArrayList<>();
+        for (Path root : roots) {
+            paths.addAll(testsIn(root, filter));
+        }
+        Set<String> knownFailures = knownFailures();
+        LoxNatives natives = new LoxNatives().add(new TestNatives("Hello"));
+        List<LoxEngine> engines = new ArrayList<>();
+        // The options the tests run through the command line get
+        List<String> options = new ArrayList<>();
+        if (fused)
+            options.add("--fused");
+        if (lazy)
+            options.add("--lazy");
+        Path cacheDirectory = null;
+        if (cache) {
+            // The second engine has nothing compiled in memory, so it loads every program
+            // the first one stored
+            cacheDirectory = Files.createTempDirectory("lox-cache");
+            engines.add(new LoxEngine(fused, lazy, cacheDirectory, natives));
+            engines.add(new LoxEngine(fused, lazy, cacheDirectory, natives));
+            options.add("--cache=" + cacheDirectory);
+        } else {
+            engines.add(new LoxEngine(fused, lazy, null, natives));
+        }
+
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        int passed = 0;
+        int failed = 0;
+        int known = 0;
+        int skipped = 0;
+        List<Test> tests = new ArrayList<>();
+        for (int run = 0; run < engines.size(); run++) {
+            LoxEngine engine = engines.get(run);
+            boolean cached = run > 0;
+            List<Future<Test>> futures = new ArrayList<>();
+            for (Path path : paths) {
+                futures.add(workers.submit(() -> new Test(path, cached).run(engine, options)));
+            }
+
+            for (Future<Test> future : futures) {
+                Test test = future.get();
+                tests.add(test);
+                boolean knownFailure = knownFailures.contains(test.path.toString().replace(File.separatorChar, '/'));
+                if (knownFailure && !test.skipped) {
+                    if (test.failures.isEmpty()) {
+                        test.failures.add("Passed, so it should come out of " + KNOWN_FAILURES + ".");
+                    } else {
+                        known++;
+                        if (verbose)
+                            System.out.println(String.format("KNOWN %-59s %8.2fms", test.name(), test.nanos / 1e6));
+                        continue;
+                    }
+                }
+                if (test.skipped) {
+                    skipped++;
+                } else if (test.failures.isEmpty()) {
+                    passed++;
+                    if (verbose)
+                        System.out.println(String.format("PASS %-60s %8.2fms", test.name(), test.nanos / 1e6));
+                } else {
+                    failed++;
+                    System.out.println(String.format("FAIL %-60s %8.2fms", test.name(), test.nanos / 1e6));
+                    for (String failure : test.failures) {
+                        System.out.println("     " + failure);
+                    }
+                }
+            }
+        }
+        workers.shutdown();
+        long elapsed = System.nanoTime() - start;
+        if (cacheDirectory != null) {
+            try (Stream<Path> files = Files.list(cacheDirectory)) {
+                System.out.println("Cached " + files.count() + " programs.");
+            }
+            deleteCache(cacheDirectory);
+        }
+
+        // The slowest tests are the ones worth looking at when the run gets slow
+        tests.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        System.out.println("Slowest:");
+        for (Test test : tests.subList(0, Math.min(5, tests.size()))) {
+            System.out.println(String.format("     %-60s %8.2fms", test.name(), test.nanos / 1e6));
+        }
+
+        System.out.println(String.format("%d passed, %d failed, %d known failures, %d skipped in %.2fs on %d threads",
+                passed, failed, known, skipped, elapsed / 1e9, threads));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static void deleteCache(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /* The paths of the tests listed in lox/known_failures.txt, which has # comments. */
+    private static Set<String> knownFailures() throws IOException {
+        Set<String> paths = new HashSet<>();
+        if (!Files.exists(KNOWN_FAILURES))
+            return paths;
+        for (String line : Files.readAllLines(KNOWN_FAILURES, StandardCharsets.UTF_8)) {
+            line = line.replaceFirst("#.*", "").trim();
+            if (!line.isEmpty())
+                paths.add(line);
+        }
+        return paths;
+    }
+
+    /* The book's corpus and every directory of tests next to it. */
+    private static List<Path> defaultRoots() throws IOException {
+        List<Path> roots = new ArrayList<>();
+        roots.add(Paths.get("lox/robert_nystrom/test"));
+        try (Stream<Path> files = Files.list(Paths.get("lox"))) {
+            files.filter(Files::isDirectory)
+                    .filter(path -> !path.getFileName().toString().equals("robert_nystrom"))
+                    .sorted()
+                    .forEach(roots::add);
+        }
+        return roots;
+    }
+
+    private static List<Path> testsIn(Path root, String filter) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(path -> path.toString().endsWith(".lox"))
+                    .filter(path -> !SKIPPED.contains(root.relativize(path).getName(0).toString()))
+                    .filter(path -> filter == null || path.toString().contains(filter))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static class Test {
+        final Path path;
+        final boolean cached; // Run from the program cache
+        final List<String> expectedOutput = new ArrayList<>();
+        final Set<String> expectedErrors = new TreeSet<>();
+        String expectedRuntimeError = null; // "[line N] message"
+        int expectedExitCode = 0;
+
+        boolean skipped = false;
+        final List<String> failures = new ArrayList<>();
+        long nanos;
+
+        Test(Path path, boolean cached) {
+            this.path = path;
+            this.cached = cached;
+        }
+
+        String name() {
+            return cached ? path + " (cached)" : path.toString();
+        }
+
+        Test run(LoxEngine engine, List<String> options) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+            parseExpectations(source);
+            if (skipped)
+                return this;
+            if (path.startsWith(COMMAND_LINE_TESTS))
+                return runCommandLine(options, start);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(output, true, "UTF-8");
+            ExecutionResult result;
+            try {
+                CompiledScript script = engine.compile(path);
+                result = engine.execute(script, out);
+            } catch (RuntimeException | StackOverflowError e) {
+                // A bug in the interpreter shouldn't stop the other tests
+                failures.add("Crashed: " + e);
+                return this;
+            } finally {
+                nanos = System.nanoTime() - start;
+            }
+
+            Set<String> compileErrors = new TreeSet<>();
+            String runtimeError = null;
+            for (LoxError error : result.errors()) {
+                if (error.kind() == LoxError.Kind.COMPILE) {
+                    compileErrors.add(error.toString());
+                } else {
+                    runtimeError = error.toString();
+                }
+            }
+            validateErrors(compileErrors, runtimeError);
+            validateOutput(new String(output.toByteArray(), StandardCharsets.UTF_8));
+            validateExitCode(result.exitCode());
+            return this;
+        }
+
+        /* Run the test with "jlox [options] path" in a new JVM, checking what it prints. */
+        private Test runCommandLine(List<String> options, long start) throws IOException, InterruptedException {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("com.craftinginterpreters.lox.Lox");
+            command.addAll(options);
+            command.add(path.toString());
+
+            // Files, so neither stream can fill up and block the other
+            Path output = Files.createTempFile("lox-test", ".out");
+            Path errors = Files.createTempFile("lox-test", ".err");
+            try {
+                Process process = new ProcessBuilder(command)
+                        .redirectOutput(output.toFile())
+                        .redirectError(errors.toFile())
+                        .start();
+                int exitCode = process.waitFor();
+                nanos = System.nanoTime() - start;
+
+                Set<String> compileErrors = new TreeSet<>();
+                String runtimeError = null;
+                for (String line : Files.readAllLines(errors, StandardCharsets.UTF_8)) {
+                    if (line.matches("\\[line \\d+\\] Error.*")) {
+                        compileErrors.add(line);
+                    } else if (line.startsWith("[line ")) {
+                        runtimeError = line;
+                    } else if (!line.isEmpty()) {
+                        failures.add("Unexpected output on stderr: " + line);
+                    }
+                }
+                validateErrors(compileErrors, runtimeError);
+                validateOutput(new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+                validateExitCode(exitCode);
+            } finally {
+                Files.delete(output);
+                Files.delete(errors);
+            }
+            return this;
+        }
+
+        private void validateExitCode(int exitCode) {
+            if (exitCode != expectedExitCode)
+                failures.add("Expected exit code " + expectedExitCode + " but got " + exitCode + ".");
+        }
+
+        private void parseExpectations(String source) {
+            String[] lines = source.split("\r?\n", -1);
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i];
+                int lineNumber = i + 1;
+                if (NON_TEST.matcher(line).find()) {
+                    skipped = true;
+                    return;
+                }
+
+                Matcher match = EXPECTED_OUTPUT.matcher(line);
+                if (match.find()) {
+                    expectedOutput.add(match.group(1));
+                    continue;
+                }
+
+                match = EXPECTED_ERROR.matcher(line);
+                if (match.find()) {
+                    expectedErrors.add("[line " + lineNumber + "] " + match.group(1));
+                    expectedExitCode = 65;
+                    continue;
+                }
+
+                match = EXPECTED_ERROR_LINE.matcher(line);
+                if (match.find()) {
+                    if (!"c".equals(match.group(2))) {
+                        expectedErrors.add("[line " + match.group(3) + "] " + match.group(4));
+                        expectedExitCode = 65;
+                    }
+                    continue;
+                }
+
+                match = EXPECTED_RUNTIME_ERROR.matcher(line);
+                if (match.find()) {
+                    expectedRuntimeError = "[line " + lineNumber + "] " + match.group(1);
+                    expectedExitCode = 70;
+                }
+            }
+        }
+
+        private void validateErrors(Set<String> compileErrors, String runtimeError) {
+            for (String error : expectedErrors) {
+                if (!compileErrors.contains(error))
+                    failures.add("Missing expected error: " + error);
+            }
+            for (String error : compileErrors) {
+                if (!expectedErrors.contains(error))
+                    failures.add("Unexpected error: " + error);
+            }
+
+            if (expectedRuntimeError != null && runtimeError == null) {
+                failures.add("Expected runtime error '" + expectedRuntimeError + "' and got none.");
+            } else if (expectedRuntimeError != null && !expectedRuntimeError.equals(runtimeError)) {
+                failures.add("Expected runtime error '" + expectedRuntimeError + "' and got '" + runtimeError + "'.");
+            } else if (expectedRuntimeError == null && runtimeError != null) {
+                failures.add("Unexpected runtime error: " + runtimeError);
+            }
+        }
+
+        private void validateOutput(String output) {
+            List<String> lines = new ArrayList<>(Arrays.asList(output.split("\r?\n", -1)));
+            // The last newline doesn't start another line
+            if (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty())
+                lines.remove(lines.size() - 1);
+
+            for (int i = 0; i < lines.size(); i++) {
+                if (i >= expectedOutput.size()) {
+                    failures.add("Got output '" + lines.get(i) + "' when none was expected.");
+                    return;
+                }
+                if (!lines.get(i).equals(expectedOutput.get(i))) {
+                    failures.add("Expected output '" + expectedOutput.get(i) + "' on line " + (i + 1)
+                            + " and got '" + lines.get(i) + "'.");
+                    return;
+                }
+            }
+            for (int i = lines.size(); i < expectedOutput.size(); i++) {
+                failures.add("Missing expected output '" + expectedOutput.get(i) + "'.");
+            }
+        }
+    }
+}